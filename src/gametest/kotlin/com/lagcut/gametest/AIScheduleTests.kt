@@ -0,0 +1,45 @@
+package com.lagcut.gametest
+
+import com.lagcut.AIModification
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest
+import net.minecraft.test.GameTest
+import net.minecraft.test.GameTestException
+import net.minecraft.test.TestContext
+
+/**
+ * Checks AI throttling schedules against the calls vanilla actually makes: selector ticks
+ * only happen when `serverTicks + entityId` is even.
+ */
+class AIScheduleTests : FabricGameTest {
+
+    @GameTest(templateName = FabricGameTest.EMPTY_STRUCTURE)
+    fun selectorsRunForBothIdParities(context: TestContext) {
+        for (interval in SELECTOR_INTERVALS) {
+            for (entityId in 0 until 64) {
+                var calls = 0
+                var due = 0
+                for (serverTicks in 0 until SIMULATED_TICKS) {
+                    if ((serverTicks + entityId) % 2 != 0) continue
+                    calls++
+                    if (AIModification.isSelectorCallDue(serverTicks, entityId, interval)) due++
+                }
+
+                // Every mob must get its selector run about once per interval, whatever its parity
+                val expected = SIMULATED_TICKS / interval
+                if (due == 0 || due < expected - 1 || due > expected + 1) {
+                    throw GameTestException(
+                        "Entity $entityId (${if (entityId % 2 == 0) "even" else "odd"} id) ran $due of $calls selector calls at interval $interval, expected about $expected"
+                    )
+                }
+            }
+        }
+        context.complete()
+    }
+
+    companion object {
+        private const val SIMULATED_TICKS = 2400
+
+        // Tier and stacked-mob intervals as configured, including the ones scaled by intensity
+        private val SELECTOR_INTERVALS = intArrayOf(2, 4, 8, 10, 16, 20, 40)
+    }
+}
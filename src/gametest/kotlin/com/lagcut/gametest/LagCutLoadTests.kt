@@ -0,0 +1,123 @@
+package com.lagcut.gametest
+
+import com.cobblemon.mod.common.api.pokemon.PokemonProperties
+import com.lagcut.Lagcut
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest
+import net.minecraft.block.Blocks
+import net.minecraft.entity.EntityType
+import net.minecraft.entity.ItemEntity
+import net.minecraft.entity.SpawnReason
+import net.minecraft.item.ItemStack
+import net.minecraft.item.Items
+import net.minecraft.test.GameTest
+import net.minecraft.test.TestContext
+
+/**
+ * Headless worst-case scenarios for `./gradlew runGametest`.
+ *
+ * Each test builds its scene once and hands it to a [LoadScenario], which replays the spawn
+ * with every LagCut subsystem combination and reports MSPT per phase. The tests only fail
+ * if a scenario cannot run; the numbers are for comparison between builds, not assertions.
+ * Entity counts scale with `-Dlagcut.loadtest.scale` (default 1.0) for smaller machines.
+ */
+class LagCutLoadTests : FabricGameTest {
+
+    @GameTest(templateName = FabricGameTest.EMPTY_STRUCTURE, batchId = "lagcut_cows", tickLimit = TICK_LIMIT)
+    fun cowPen(context: TestContext) {
+        val cows = scaled(5000)
+        LoadScenario("cow-pen", PEN_SIZE, { area -> pen(area, PEN_SIZE, roofed = false) }) { area ->
+            repeat(cows) {
+                val cow = EntityType.COW.create(area.world) ?: return@repeat
+                area.spawn(cow, 1.5 + area.world.random.nextDouble() * (PEN_SIZE - 3), 1.0, 1.5 + area.world.random.nextDouble() * (PEN_SIZE - 3))
+            }
+        }.run(context)
+    }
+
+    @GameTest(templateName = FabricGameTest.EMPTY_STRUCTURE, batchId = "lagcut_items", tickLimit = TICK_LIMIT)
+    fun itemStream(context: TestContext) {
+        val items = scaled(20000)
+        val drops = listOf(Items.COBBLESTONE, Items.DIRT, Items.BONE, Items.ROTTEN_FLESH, Items.ARROW, Items.STRING, Items.GUNPOWDER, Items.OAK_SAPLING)
+        LoadScenario("item-stream", STREAM_LENGTH, ::stream) { area ->
+            val random = area.world.random
+            repeat(items) { i ->
+                val x = 0.5 + random.nextDouble() * (STREAM_LENGTH - 1)
+                val entity = ItemEntity(area.world, 0.0, 0.0, 0.0, ItemStack(drops[i % drops.size]))
+                area.spawn(entity, x, 6.0, 1.5 + random.nextDouble() * 2.0)
+            }
+        }.run(context)
+    }
+
+    @GameTest(templateName = FabricGameTest.EMPTY_STRUCTURE, batchId = "lagcut_hostiles", tickLimit = TICK_LIMIT)
+    fun darkRoom(context: TestContext) {
+        val mobs = scaled(300)
+        val types = listOf(EntityType.ZOMBIE, EntityType.SKELETON, EntityType.SPIDER, EntityType.CREEPER)
+        LoadScenario("dark-room", ROOM_SIZE, { area -> pen(area, ROOM_SIZE, roofed = true) }) { area ->
+            val random = area.world.random
+            repeat(mobs) { i ->
+                val mob = types[i % types.size].create(area.world) ?: return@repeat
+                mob.initialize(area.world, area.world.getLocalDifficulty(mob.blockPos), SpawnReason.SPAWNER, null)
+                // Creepers would blow the room apart before the phase is measured
+                mob.setPersistent()
+                area.spawn(mob, 1.5 + random.nextDouble() * (ROOM_SIZE - 3), 1.0, 1.5 + random.nextDouble() * (ROOM_SIZE - 3))
+            }
+        }.run(context)
+    }
+
+    @GameTest(templateName = FabricGameTest.EMPTY_STRUCTURE, batchId = "lagcut_pokemon", tickLimit = TICK_LIMIT)
+    fun pokemonField(context: TestContext) {
+        if (!Lagcut.isCobblemonPresent) {
+            context.complete()
+            return
+        }
+        val pokemon = scaled(600)
+        LoadScenario("pokemon-field", PEN_SIZE, { area -> pen(area, PEN_SIZE, roofed = false) }) { area ->
+            val random = area.world.random
+            repeat(pokemon) { i ->
+                val entity = PokemonProperties.parse("${SPECIES[i % SPECIES.size]} level=20").createEntity(area.world)
+                area.spawn(entity, 1.5 + random.nextDouble() * (PEN_SIZE - 3), 1.0, 1.5 + random.nextDouble() * (PEN_SIZE - 3))
+            }
+        }.run(context)
+    }
+
+    // Stone floor with two-high walls, optionally roofed to keep the room dark
+    private fun pen(area: ScenarioArea, size: Int, roofed: Boolean) {
+        for (x in 0 until size) {
+            for (z in 0 until size) {
+                area.setBlock(x, 0, z, Blocks.STONE.defaultState)
+                val edge = x == 0 || z == 0 || x == size - 1 || z == size - 1
+                if (edge) {
+                    area.setBlock(x, 1, z, Blocks.STONE.defaultState)
+                    area.setBlock(x, 2, z, Blocks.STONE.defaultState)
+                }
+                if (roofed) area.setBlock(x, 3, z, Blocks.STONE.defaultState)
+            }
+        }
+    }
+
+    // A walled trough stepping down one block every 8 so the water keeps flowing its whole length
+    private fun stream(area: ScenarioArea) {
+        for (x in 0 until STREAM_LENGTH) {
+            val floor = 4 - x / 8
+            for (z in 0..4) {
+                area.setBlock(x, floor, z, Blocks.STONE.defaultState)
+                if (z == 0 || z == 4) {
+                    for (y in floor + 1..5) area.setBlock(x, y, z, Blocks.STONE.defaultState)
+                }
+            }
+        }
+        for (z in 1..3) area.setBlock(0, 5, z, Blocks.WATER.defaultState)
+    }
+
+    private fun scaled(count: Int): Int =
+        (count * (System.getProperty("lagcut.loadtest.scale")?.toDoubleOrNull() ?: 1.0)).toInt().coerceAtLeast(1)
+
+    companion object {
+        // Eight phases of settle + measurement at the default 200 ticks, with room to spare
+        const val TICK_LIMIT = 20000
+        const val PEN_SIZE = 48
+        const val ROOM_SIZE = 16
+        const val STREAM_LENGTH = 32
+
+        private val SPECIES = listOf("bulbasaur", "charmander", "squirtle", "pidgey", "rattata", "caterpie", "zubat", "geodude")
+    }
+}
@@ -0,0 +1,273 @@
+package com.lagcut.gametest
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.lagcut.DensityIndex
+import com.lagcut.api.StackDataProvider
+import com.lagcut.api.TPSTracker
+import com.lagcut.utils.AIThrottlingSettings
+import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+import net.minecraft.block.BlockState
+import net.minecraft.block.Blocks
+import net.minecraft.entity.Entity
+import net.minecraft.entity.ItemEntity
+import net.minecraft.entity.mob.MobEntity
+import net.minecraft.entity.player.PlayerEntity
+import net.minecraft.server.world.ServerWorld
+import net.minecraft.test.TestContext
+import net.minecraft.util.math.BlockPos
+import net.minecraft.util.math.Box
+import net.minecraft.util.math.Vec3d
+import net.minecraft.world.GameRules
+import org.slf4j.LoggerFactory
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * One scripted worst case, measured once per [Phase].
+ *
+ * Every phase switches LagCut's subsystems, moves the test player to the phase's distance
+ * (AI throttling only acts on mobs away from players), spawns the scenario afresh, lets it settle for
+ * [SETTLE_TICKS] and then records the duration of each server tick for `lagcut.loadtest.ticks`
+ * ticks (default 200). The results (MSPT mean and percentiles plus what is left alive) are
+ * logged and written to `lagcut-loadtest-<name>.json` in the run directory.
+ */
+class LoadScenario(
+    private val name: String,
+    private val size: Int,
+    private val build: (ScenarioArea) -> Unit,
+    private val spawn: (ScenarioArea) -> Unit
+) {
+    /** Where the test player stands: at the scene, or just far enough for the near edge of the scene to leave the previous AI tier. */
+    enum class Placement {
+        SCENE, REDUCED_TIER, MINIMAL_TIER, FROZEN_TIER;
+
+        fun chunksAway(settings: AIThrottlingSettings, sceneRadius: Int): Int = when (this) {
+            SCENE -> 0
+            REDUCED_TIER -> settings.chunkRadius + 1 + sceneRadius
+            MINIMAL_TIER -> settings.reducedChunkRadius + 1 + sceneRadius
+            FROZEN_TIER -> settings.minimalChunkRadius + 1 + sceneRadius
+        }
+    }
+
+    enum class Phase(
+        val label: String,
+        val mobStacking: Boolean,
+        val itemStacking: Boolean,
+        val aiThrottling: Boolean,
+        val placement: Placement = Placement.SCENE
+    ) {
+        OFF("lagcut-off", false, false, false),
+        MOB_STACKING("mob-stacking", true, false, false),
+        ITEM_STACKING("item-stacking", false, true, false),
+        AI_REDUCED("ai-throttling-reduced", false, false, true, Placement.REDUCED_TIER),
+        AI_MINIMAL("ai-throttling-minimal", false, false, true, Placement.MINIMAL_TIER),
+        AI_FROZEN("ai-throttling-frozen", false, false, true, Placement.FROZEN_TIER),
+        ALL("all", true, true, true),
+        ALL_REMOTE("all-player-away", true, true, true, Placement.REDUCED_TIER)
+    }
+
+    private class PhaseResult(
+        val phase: Phase,
+        val tickTimes: LongArray,
+        val entities: Int,
+        val mobsRepresented: Int,
+        val itemsRepresented: Int,
+        val byCategory: IntArray
+    )
+
+    fun run(context: TestContext) {
+        val world = context.world
+        val area = ScenarioArea(context, size)
+        build(area)
+
+        val settings = LagCutConfig.config
+        val original = booleanArrayOf(
+            settings.entityStacking.enabled,
+            settings.itemStacking.enabled,
+            settings.aiThrottling.enabled,
+            settings.clearLag.enabled
+        )
+        // Cramming would slowly kill the dense scenarios and make the phases incomparable
+        val cramming = world.gameRules.getInt(GameRules.MAX_ENTITY_CRAMMING)
+        world.gameRules.get(GameRules.MAX_ENTITY_CRAMMING).set(0, world.server)
+        settings.clearLag.enabled = false
+
+        // A player near or away from the scene, so AI tiers behave like on a live server. The
+        // test area is force-loaded, so entities keep ticking however far the player stands.
+        val player = context.createMockCreativeServerPlayerInWorld()
+        val center = area.pos(size / 2.0, 6.0, size / 2.0)
+        val sceneRadius = (size / 2 + 15) / 16
+
+        val measureTicks = Integer.getInteger("lagcut.loadtest.ticks", 200).toLong()
+        val results = ArrayList<PhaseResult>()
+        var tick = 1L
+        for (phase in Phase.entries) {
+            context.runAtTick(tick) {
+                settings.entityStacking.enabled = phase.mobStacking
+                settings.itemStacking.enabled = phase.itemStacking
+                settings.aiThrottling.enabled = phase.aiThrottling
+                val offset = phase.placement.chunksAway(settings.aiThrottling, sceneRadius) * 16.0
+                player.refreshPositionAndAngles(center.x + offset, center.y, center.z, 0f, 90f)
+                spawn(area)
+            }
+            context.runAtTick(tick + SETTLE_TICKS) { TickRecorder.start() }
+            context.runAtTick(tick + SETTLE_TICKS + measureTicks) {
+                results += measure(phase, TickRecorder.stop(), world, area)
+                area.despawnAll()
+            }
+            tick += SETTLE_TICKS + measureTicks + 1
+        }
+
+        context.runAtTick(tick) {
+            settings.entityStacking.enabled = original[0]
+            settings.itemStacking.enabled = original[1]
+            settings.aiThrottling.enabled = original[2]
+            settings.clearLag.enabled = original[3]
+            world.gameRules.get(GameRules.MAX_ENTITY_CRAMMING).set(cramming, world.server)
+            world.server.playerManager.remove(player)
+            area.clear()
+
+            report(results)
+            context.complete()
+        }
+    }
+
+    private fun measure(phase: Phase, tickTimes: LongArray, world: ServerWorld, area: ScenarioArea): PhaseResult {
+        var entities = 0
+        var mobs = 0
+        var items = 0
+        for (entity in area.entities()) {
+            entities++
+            when (entity) {
+                is ItemEntity -> items += entity.stack.count
+                is MobEntity -> mobs += (entity as StackDataProvider).getStackSizeCompat().coerceAtLeast(1)
+            }
+        }
+        val byCategory = IntArray(DensityIndex.Category.entries.size) {
+            DensityIndex.count(world, DensityIndex.Category.entries[it])
+        }
+        return PhaseResult(phase, tickTimes, entities, mobs, items, byCategory)
+    }
+
+    private fun report(results: List<PhaseResult>) {
+        val json = JsonObject()
+        json.addProperty("scenario", name)
+        val phases = JsonArray()
+        for (result in results) {
+            val mean = TPSTracker.mean(result.tickTimes) / 1_000_000.0
+            val p50 = TPSTracker.getTickTimePercentile(result.tickTimes, 0.50)
+            val p95 = TPSTracker.getTickTimePercentile(result.tickTimes, 0.95)
+            val p99 = TPSTracker.getTickTimePercentile(result.tickTimes, 0.99)
+            val max = TPSTracker.getTickTimePercentile(result.tickTimes, 1.0)
+            logger.info(
+                "[$name/${result.phase.label}] MSPT mean %.2f p50 %.2f p95 %.2f p99 %.2f max %.2f | entities ${result.entities}, mobs ${result.mobsRepresented}, items ${result.itemsRepresented}"
+                    .format(mean, p50, p95, p99, max)
+            )
+
+            val phase = JsonObject()
+            phase.addProperty("phase", result.phase.label)
+            phase.addProperty("playerPlacement", result.phase.placement.name.lowercase())
+            phase.addProperty("ticks", result.tickTimes.size)
+            phase.addProperty("msptMean", mean)
+            phase.addProperty("msptP50", p50)
+            phase.addProperty("msptP95", p95)
+            phase.addProperty("msptP99", p99)
+            phase.addProperty("msptMax", max)
+            phase.addProperty("entities", result.entities)
+            phase.addProperty("mobsRepresented", result.mobsRepresented)
+            phase.addProperty("itemsRepresented", result.itemsRepresented)
+            val categories = JsonObject()
+            for (category in DensityIndex.Category.entries) {
+                categories.addProperty(category.name.lowercase(), result.byCategory[category.ordinal])
+            }
+            phase.add("worldEntities", categories)
+            phases.add(phase)
+        }
+        json.add("phases", phases)
+
+        val file = Path.of("lagcut-loadtest-$name.json")
+        Files.writeString(file, GsonBuilder().setPrettyPrinting().create().toJson(json))
+        logger.info("[$name] Results written to ${file.toAbsolutePath()}")
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger("LagCut-LoadTest")
+        const val SETTLE_TICKS = 40L
+    }
+}
+
+/**
+ * The blocks and entities of a running scenario, addressed relative to the test origin.
+ * Everything placed here is tracked so it can be removed afterwards, even outside the
+ * test structure's bounds.
+ */
+class ScenarioArea(private val context: TestContext, private val size: Int) {
+    val world: ServerWorld
+        get() = context.world
+
+    private val origin: BlockPos = context.getAbsolutePos(BlockPos.ORIGIN)
+    private val placed = ArrayList<BlockPos>()
+    private val bounds: Box
+        get() = Box(origin.toCenterPos(), origin.add(size, 8, size).toCenterPos()).expand(8.0)
+
+    fun pos(x: Double, y: Double, z: Double): Vec3d =
+        Vec3d(origin.x + x, origin.y + y, origin.z + z)
+
+    fun setBlock(x: Int, y: Int, z: Int, state: BlockState) {
+        val pos = origin.add(x, y, z)
+        world.setBlockState(pos, state)
+        placed += pos
+    }
+
+    fun spawn(entity: Entity, x: Double, y: Double, z: Double) {
+        val pos = pos(x, y, z)
+        entity.refreshPositionAndAngles(pos.x, pos.y, pos.z, world.random.nextFloat() * 360f, 0f)
+        world.spawnEntity(entity)
+    }
+
+    fun entities(): List<Entity> =
+        world.getEntitiesByClass(Entity::class.java, bounds) { it !is PlayerEntity && !it.isRemoved }
+
+    fun despawnAll() {
+        entities().forEach { it.discard() }
+    }
+
+    fun clear() {
+        despawnAll()
+        // Fluids first so nothing flows into the blocks cleared after them
+        for (i in placed.indices.reversed()) {
+            world.setBlockState(placed[i], Blocks.AIR.defaultState)
+        }
+        placed.clear()
+    }
+}
+
+/** Records the wall time of every server tick between [start] and [stop]. */
+object TickRecorder {
+    private val samples = LongArrayList()
+    private var recording = false
+    private var tickStart = 0L
+    private var registered = false
+
+    fun start() {
+        if (!registered) {
+            registered = true
+            ServerTickEvents.START_SERVER_TICK.register { if (recording) tickStart = System.nanoTime() }
+            ServerTickEvents.END_SERVER_TICK.register {
+                if (recording && tickStart != 0L) samples.add(System.nanoTime() - tickStart)
+            }
+        }
+        samples.clear()
+        tickStart = 0L
+        recording = true
+    }
+
+    fun stop(): LongArray {
+        recording = false
+        return samples.toLongArray()
+    }
+}
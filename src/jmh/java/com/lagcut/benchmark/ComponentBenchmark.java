@@ -0,0 +1,83 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.ItemStackingManager;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.NbtComponent;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Item component comparison for stacking. Needs the vanilla registries, so the game is
+ * bootstrapped once per fork (no world and no mod loader).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentBenchmark {
+    private ItemStack plain;
+    private ItemStack plainCopy;
+    private ItemStack tagged;
+    private ItemStack taggedCopy;
+    private long plainFingerprint;
+    private long taggedFingerprint;
+    private long taggedCopyFingerprint;
+
+    @Setup
+    public void setup() {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+
+        plain = new ItemStack(Items.COBBLESTONE, 32);
+        plainCopy = new ItemStack(Items.COBBLESTONE, 16);
+
+        NbtCompound data = new NbtCompound();
+        data.putString("owner", "benchmark");
+        data.putInt("level", 5);
+        tagged = new ItemStack(Items.DIAMOND_SWORD);
+        tagged.set(DataComponentTypes.DAMAGE, 12);
+        tagged.set(DataComponentTypes.CUSTOM_DATA, NbtComponent.of(data));
+        taggedCopy = tagged.copy();
+
+        plainFingerprint = ItemStackingManager.INSTANCE.computeComponentFingerprint(plain);
+        taggedFingerprint = ItemStackingManager.INSTANCE.computeComponentFingerprint(tagged);
+        taggedCopyFingerprint = ItemStackingManager.INSTANCE.computeComponentFingerprint(taggedCopy);
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        return ItemStackingManager.INSTANCE.computeComponentFingerprint(tagged);
+    }
+
+    @Benchmark
+    public boolean matchPlain() {
+        return ItemStackingManager.INSTANCE.componentsMatch(plain, plainFingerprint, plainCopy, plainFingerprint);
+    }
+
+    @Benchmark
+    public boolean matchComponents() {
+        return ItemStackingManager.INSTANCE.componentsMatch(tagged, taggedFingerprint, taggedCopy, taggedCopyFingerprint);
+    }
+
+    @Benchmark
+    public boolean rejectByFingerprint() {
+        return ItemStackingManager.INSTANCE.componentsMatch(plain, plainFingerprint, tagged, taggedFingerprint);
+    }
+}
@@ -0,0 +1,107 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.EntityNames;
+import com.lagcut.ExclusionLists;
+import com.lagcut.VerdictTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity exclusion checks through the {@link VerdictTable} that ExclusionRules keeps per
+ * entity type: lookups of registered types, and of types registered after the rebuild,
+ * which miss the table and compute their verdict from the lists every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExclusionBenchmark {
+
+    /** Stands in for an EntityType: an identity key with its id and translation key. */
+    private static final class FakeType {
+        final String id;
+        final String translationKey;
+
+        FakeType(String namespace, String path) {
+            this.id = namespace + ":" + path;
+            this.translationKey = "entity." + namespace + "." + path;
+        }
+    }
+
+    private static final EntityNames<FakeType> NAMES = new EntityNames<>() {
+        @Override public String id(FakeType type) { return type.id; }
+        @Override public String translationKey(FakeType type) { return type.translationKey; }
+        @Override public boolean isPlayer(FakeType type) { return false; }
+    };
+
+    @Param({"10", "200"})
+    public int listSize;
+
+    private ExclusionLists lists;
+    private FakeType[] types;
+    private FakeType[] lateTypes;
+    private VerdictTable<FakeType> verdicts;
+
+    @Setup
+    public void setup() {
+        List<String> rawTypes = new ArrayList<>();
+        List<String> rawIds = new ArrayList<>();
+        List<String> rawBlocklist = new ArrayList<>();
+        for (int i = 0; i < listSize; i++) {
+            rawTypes.add("entity.minecraft.excluded_" + i);
+            rawIds.add("minecraft:excluded_" + i);
+            rawBlocklist.add("cobblemon:species_" + i);
+        }
+        List<String> dimensions = List.of("minecraft:the_end", "minecraft:the_nether");
+        lists = ExclusionLists.compile(rawTypes, rawIds, dimensions, rawIds, dimensions, rawTypes, rawBlocklist, dimensions);
+
+        // A registry's worth of types, some of them excluded, and a few modded ones registered late
+        types = new FakeType[1024];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = i % 16 == 0
+                    ? new FakeType("minecraft", "excluded_" + (i % listSize))
+                    : new FakeType(i % 3 == 0 ? "cobblemon" : "minecraft", "type_" + i);
+        }
+        lateTypes = new FakeType[64];
+        for (int i = 0; i < lateTypes.length; i++) {
+            lateTypes[i] = new FakeType("latemod", "type_" + i);
+        }
+        verdicts = VerdictTable.entities(lists, NAMES).precompute(Arrays.asList(types));
+    }
+
+    @Benchmark
+    public void verdictLookup(Blackhole blackhole) {
+        for (FakeType type : types) {
+            blackhole.consume(verdicts.flags(type) & ExclusionLists.STACK_EXCLUDED);
+        }
+    }
+
+    @Benchmark
+    public void verdictMiss(Blackhole blackhole) {
+        for (FakeType type : lateTypes) {
+            blackhole.consume(verdicts.flags(type) & ExclusionLists.STACK_EXCLUDED);
+        }
+    }
+
+    @Benchmark
+    public boolean pokemonBlocklist() {
+        return lists.isPokemonBlocklisted("cobblemon.species.species_" + (listSize - 1) + ".name");
+    }
+}
@@ -0,0 +1,144 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.SpatialBuckets;
+import kotlin.Unit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge candidate search and clustering over synthetic entities: the spatial bucket index
+ * used by item stacking, a brute-force pairwise scan as the baseline, and a greedy
+ * clustering pass in the style of the mob stacking merge loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeCandidateBenchmark {
+    private static final double RADIUS = 1.5;
+    private static final double CELL_SIZE = Math.ceil(RADIUS + 0.25);
+    private static final int TYPES = 4;
+
+    private static final class Point {
+        final double x;
+        final double y;
+        final double z;
+        final int type;
+        final long fingerprint;
+        final int index;
+        long bucket;
+
+        Point(int index, double x, double y, double z, int type, long fingerprint) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.type = type;
+            this.fingerprint = fingerprint;
+        }
+
+        boolean isNear(Point other) {
+            double dx = x - other.x;
+            double dy = y - other.y;
+            double dz = z - other.z;
+            return dx * dx + dy * dy + dz * dz <= RADIUS * RADIUS;
+        }
+    }
+
+    @Param({"500", "2000"})
+    public int entities;
+
+    private Point[] points;
+    private long[] cells;
+    private SpatialBuckets<Point> buckets;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(11);
+        points = new Point[entities];
+        cells = new long[entities];
+        buckets = new SpatialBuckets<>();
+        for (int i = 0; i < entities; i++) {
+            points[i] = new Point(
+                    i, random.nextDouble(0, 64), 64 + random.nextDouble(0, 4), random.nextDouble(0, 64),
+                    random.nextInt(TYPES), random.nextInt(2)
+            );
+        }
+        index();
+    }
+
+    private void index() {
+        buckets.clear();
+        for (int i = 0; i < points.length; i++) {
+            Point point = points[i];
+            cells[i] = SpatialBuckets.cellOf(point.x, point.y, point.z, CELL_SIZE);
+            point.bucket = SpatialBuckets.bucketKey(cells[i], point.type, point.fingerprint);
+            buckets.add(point.bucket, point);
+        }
+    }
+
+    @Benchmark
+    public int rebuildIndex() {
+        index();
+        return points.length;
+    }
+
+    @Benchmark
+    public int indexedSearch() {
+        int[] found = new int[1];
+        for (int i = 0; i < points.length; i++) {
+            Point point = points[i];
+            buckets.forEachNear(cells[i], point.type, point.fingerprint, other -> {
+                if (other != point && other.isNear(point)) found[0]++;
+                return Unit.INSTANCE;
+            });
+        }
+        return found[0];
+    }
+
+    @Benchmark
+    public int bruteForceSearch() {
+        int found = 0;
+        for (Point point : points) {
+            for (Point other : points) {
+                if (other != point && other.type == point.type && other.fingerprint == point.fingerprint && other.isNear(point)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int greedyClustering() {
+        // Every unclaimed entity absorbs its unclaimed neighbours, like a stacking pass
+        boolean[] claimed = new boolean[points.length];
+
+        int clusters = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (claimed[i]) continue;
+            claimed[i] = true;
+            clusters++;
+            Point point = points[i];
+            buckets.forEachNear(cells[i], point.type, point.fingerprint, other -> {
+                if (!claimed[other.index] && other.isNear(point)) claimed[other.index] = true;
+                return Unit.INSTANCE;
+            });
+        }
+        return clusters;
+    }
+}
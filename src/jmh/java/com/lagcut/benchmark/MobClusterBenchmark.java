@@ -0,0 +1,94 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.MergeClusters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mob merge clustering over synthetic farms: the union-find pass mob stacking runs now,
+ * against the old shape of sampling a quarter of the mobs and scanning each one's
+ * surroundings for partners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MobClusterBenchmark {
+    private static final double RADIUS = 20.0;
+    private static final int GROUPS = 6;
+
+    @Param({"500", "5000"})
+    public int mobs;
+
+    // Side of the square the mobs stand in: a packed farm, or a whole area of loaded chunks
+    @Param({"16", "512"})
+    public int spread;
+
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private int[] groups;
+    private MergeClusters clusters;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(17);
+        xs = new double[mobs];
+        ys = new double[mobs];
+        zs = new double[mobs];
+        groups = new int[mobs];
+        for (int i = 0; i < mobs; i++) {
+            xs[i] = random.nextDouble(0, spread);
+            ys[i] = 64 + random.nextDouble(0, 3);
+            zs[i] = random.nextDouble(0, spread);
+            groups[i] = random.nextInt(GROUPS);
+        }
+        clusters = new MergeClusters();
+    }
+
+    @Benchmark
+    public int unionFind() {
+        clusters.clear();
+        for (int i = 0; i < mobs; i++) {
+            clusters.add(xs[i], ys[i], zs[i], groups[i]);
+        }
+        clusters.cluster(RADIUS);
+
+        int roots = 0;
+        for (int i = 0; i < mobs; i++) {
+            if (clusters.find(i) == i) roots++;
+        }
+        return roots;
+    }
+
+    @Benchmark
+    public int sampledScan() {
+        // Every fourth mob looks for partners among all the others, as the old pass did per run
+        int found = 0;
+        for (int i = 0; i < mobs; i += 4) {
+            for (int j = 0; j < mobs; j++) {
+                if (j != i && groups[j] == groups[i] &&
+                        Math.abs(xs[j] - xs[i]) <= RADIUS &&
+                        Math.abs(ys[j] - ys[i]) <= RADIUS &&
+                        Math.abs(zs[j] - zs[i]) <= RADIUS) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
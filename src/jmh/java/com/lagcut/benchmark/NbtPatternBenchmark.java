@@ -0,0 +1,147 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.NbtExclusionMatcher;
+import com.lagcut.NbtPredicate;
+import com.lagcut.NbtSubject;
+import com.lagcut.PokemonNbtView;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtString;
+import net.minecraft.registry.RegistryWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NBT exclusion patterns against a wild Pokémon: structured predicates resolved through the
+ * shipped path resolvers (over an {@link NbtSubject} standing in for the entity), and the
+ * legacy substring search over the whole stringified NBT that they replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NbtPatternBenchmark {
+    private static final List<String> PATTERNS = List.of(
+            "Pokemon.Level>=100",
+            "CustomName exists",
+            "Pokemon.Species = \"cobblemon:mew\"",
+            "Tags.0 ~ \"tethered\"",
+            "Pokemon.Ability = \"levitate\""
+    );
+    private static final List<String> LEGACY_PATTERNS = List.of("Level:100", "CustomName", "cobblemon:mew", "tethered", "levitate");
+
+    private NbtCompound nbt;
+    private NbtSubject subject;
+    private List<NbtPredicate> predicates;
+
+    @Setup
+    public void setup() {
+        nbt = new NbtCompound();
+        nbt.putString("id", "cobblemon:pokemon");
+        nbt.putFloat("Health", 20.0f);
+        nbt.putInt("Air", 300);
+        nbt.putBoolean("OnGround", true);
+
+        NbtList motion = new NbtList();
+        for (int i = 0; i < 3; i++) motion.add(NbtString.of("0.0"));
+        nbt.put("Motion", motion);
+
+        NbtCompound pokemon = new NbtCompound();
+        pokemon.putString("Species", "cobblemon:pikachu");
+        pokemon.putInt("Level", 57);
+        pokemon.putString("Nature", "cobblemon:timid");
+        pokemon.putString("Ability", "static");
+        NbtCompound ivs = new NbtCompound();
+        for (String stat : List.of("hp", "attack", "defence", "special_attack", "special_defence", "speed")) {
+            ivs.putInt(stat, 31);
+        }
+        pokemon.put("IVs", ivs);
+        NbtList moves = new NbtList();
+        for (String move : List.of("thunderbolt", "quickattack", "irontail", "electroball")) {
+            NbtCompound moveNbt = new NbtCompound();
+            moveNbt.putString("MoveName", move);
+            moveNbt.putInt("MovePP", 15);
+            moves.add(moveNbt);
+        }
+        pokemon.put("MoveSet", moves);
+        nbt.put("Pokemon", pokemon);
+        subject = new WildPokemon(new PikachuView(pokemon));
+
+        predicates = new ArrayList<>();
+        for (String pattern : PATTERNS) {
+            predicates.add(NbtPredicate.Companion.parse(pattern));
+        }
+    }
+
+    @Benchmark
+    public boolean structured() {
+        for (NbtPredicate predicate : predicates) {
+            if (predicate.test(subject)) return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean legacySubstring() {
+        String text = nbt.toString();
+        for (String pattern : LEGACY_PATTERNS) {
+            if (text.contains(pattern)) return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public NbtExclusionMatcher compile() {
+        return NbtExclusionMatcher.Companion.compile(PATTERNS);
+    }
+
+    // The state a freshly spawned wild Pokémon entity reports; no item, no custom name, no tags
+    private record WildPokemon(PokemonNbtView pokemon) implements NbtSubject {
+        @Override public String getTypeId() { return "cobblemon:pokemon"; }
+        @Override public String getCustomName() { return null; }
+        @Override public Collection<String> getCommandTags() { return Set.of(); }
+        @Override public Float getHealth() { return 20.0f; }
+        @Override public Integer getAge() { return 0; }
+        @Override public Boolean getPersistent() { return false; }
+        @Override public Boolean getAiDisabled() { return false; }
+        @Override public boolean getInvulnerable() { return false; }
+        @Override public boolean getSilent() { return false; }
+        @Override public boolean getNoGravity() { return false; }
+        @Override public boolean getGlowing() { return false; }
+        @Override public boolean getOnGround() { return true; }
+        @Override public Integer getStackSize() { return 1; }
+        @Override public boolean isStacked() { return false; }
+        @Override public ItemStack getItemStack() { return null; }
+        @Override public RegistryWrapper.WrapperLookup getRegistries() { throw new UnsupportedOperationException("not an item"); }
+        @Override public PokemonNbtView getPokemon() { return pokemon; }
+    }
+
+    // Serialization hands back the prepared compound, as the per-tick cache does after the first call
+    private record PikachuView(NbtCompound serialized) implements PokemonNbtView {
+        @Override public int getLevel() { return 57; }
+        @Override public boolean getShiny() { return false; }
+        @Override public String getSpecies() { return "cobblemon:pikachu"; }
+        @Override public String getNickname() { return null; }
+        @Override public int getFriendship() { return 70; }
+        @Override public String getGender() { return "MALE"; }
+        @Override public String getNature() { return "cobblemon:timid"; }
+        @Override public NbtCompound serialize() { return serialized; }
+    }
+}
@@ -0,0 +1,56 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.api.TPSTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TPS/MSPT statistics over the server's 100-sample tick time ring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickStatsBenchmark {
+    private long[] tickTimes;
+    private double meanMillis;
+
+    @Setup
+    public void setup() {
+        // 30-60 ms ticks with a few empty slots, like a server that just started
+        SplittableRandom random = new SplittableRandom(42);
+        tickTimes = new long[100];
+        for (int i = 10; i < tickTimes.length; i++) {
+            tickTimes[i] = 30_000_000L + random.nextLong(30_000_000L);
+        }
+        meanMillis = TPSTracker.mean(tickTimes) / 1_000_000.0;
+    }
+
+    @Benchmark
+    public long mean() {
+        return TPSTracker.mean(tickTimes);
+    }
+
+    @Benchmark
+    public double deviation() {
+        return TPSTracker.getTickTimeDeviation(tickTimes, meanMillis);
+    }
+
+    @Benchmark
+    public double p99() {
+        return TPSTracker.getTickTimePercentile(tickTimes, 0.99);
+    }
+}
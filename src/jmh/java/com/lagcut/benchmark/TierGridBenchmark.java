@@ -0,0 +1,73 @@
+package com.lagcut.benchmark;
+
+import com.lagcut.AIModification;
+import com.lagcut.AITierGrid;
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI tier (active chunk) lookups: the per-tick rebuild of the tier map from player chunks,
+ * and the per-mob lookups that read it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TierGridBenchmark {
+    private static final byte FROZEN = (byte) AIModification.AILodTier.FROZEN.ordinal();
+
+    @Param({"10", "100"})
+    public int players;
+
+    private long[] playerChunks;
+    private long[] mobChunks;
+    private Long2ByteOpenHashMap tierMap;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(7);
+        playerChunks = new long[players];
+        for (int i = 0; i < players; i++) {
+            playerChunks[i] = ChunkPos.toLong(random.nextInt(-100, 100), random.nextInt(-100, 100));
+        }
+        mobChunks = new long[5000];
+        for (int i = 0; i < mobChunks.length; i++) {
+            mobChunks[i] = ChunkPos.toLong(random.nextInt(-110, 110), random.nextInt(-110, 110));
+        }
+        tierMap = new Long2ByteOpenHashMap();
+        tierMap.defaultReturnValue(FROZEN);
+        AITierGrid.fill(tierMap, playerChunks, players, 1, 4, 8);
+    }
+
+    @Benchmark
+    public int rebuild() {
+        tierMap.clear();
+        AITierGrid.fill(tierMap, playerChunks, players, 1, 4, 8);
+        return tierMap.size();
+    }
+
+    @Benchmark
+    public int lookups() {
+        int active = 0;
+        for (long chunk : mobChunks) {
+            if (tierMap.get(chunk) != FROZEN) active++;
+        }
+        return active;
+    }
+}
@@ -0,0 +1,16 @@
+package com.lagcut.api;
+
+/**
+ * Implemented by {@link net.minecraft.item.ItemStack} through a mixin. The fingerprint hashes
+ * every component that decides whether two stacks may merge and is only recomputed after the
+ * stack's components change, so it can be compared and used as a bucket key freely.
+ */
+public interface ComponentFingerprintHolder {
+
+    long lagcut$getComponentFingerprint();
+
+    // Kotlin-compatible method name
+    default long getComponentFingerprintCompat() {
+        return lagcut$getComponentFingerprint();
+    }
+}
@@ -0,0 +1,25 @@
+package com.lagcut.api;
+
+/**
+ * Remembers what an item entity's nametag was last rendered from, so the name is only
+ * rebuilt (and re-sent to clients) when the stack count or the config changes.
+ */
+public interface ItemDisplayState {
+
+    int lagcut$getDisplayedCount();
+    int lagcut$getDisplayEpoch();
+    void lagcut$setDisplayState(int count, int epoch);
+
+    // Kotlin-compatible method names
+    default int getDisplayedCountCompat() {
+        return lagcut$getDisplayedCount();
+    }
+
+    default int getDisplayEpochCompat() {
+        return lagcut$getDisplayEpoch();
+    }
+
+    default void setDisplayStateCompat(int count, int epoch) {
+        lagcut$setDisplayState(count, epoch);
+    }
+}
@@ -0,0 +1,31 @@
+package com.lagcut.api;
+
+public interface ItemIndexHolder {
+
+    long lagcut$getIndexCell();
+    long lagcut$getIndexBucket();
+    long lagcut$getIndexFingerprint();
+    int lagcut$getIndexEpoch();
+    void lagcut$setIndexEntry(long cell, long bucket, long fingerprint, int epoch);
+
+    // Kotlin-compatible method names
+    default long getIndexCellCompat() {
+        return lagcut$getIndexCell();
+    }
+
+    default long getIndexBucketCompat() {
+        return lagcut$getIndexBucket();
+    }
+
+    default long getIndexFingerprintCompat() {
+        return lagcut$getIndexFingerprint();
+    }
+
+    default int getIndexEpochCompat() {
+        return lagcut$getIndexEpoch();
+    }
+
+    default void setIndexEntryCompat(long cell, long bucket, long fingerprint, int epoch) {
+        lagcut$setIndexEntry(cell, bucket, fingerprint, epoch);
+    }
+}
@@ -79,8 +79,13 @@ public class TPSTracker {
     }
 
     public static double getTickTimeVariance(MinecraftServer server) {
-        long[] tickTimes = server.getTickTimes();
-        double mean = getMeanTickTime();
+        return getTickTimeDeviation(server.getTickTimes(), getMeanTickTime());
+    }
+
+    /**
+     * Standard deviation of the recorded tick times around {@code mean}, in milliseconds.
+     */
+    public static double getTickTimeDeviation(long[] tickTimes, double mean) {
         double variance = 0.0;
         int count = 0;
 
@@ -95,6 +100,20 @@ public class TPSTracker {
         return count > 0 ? Math.sqrt(variance / count) : 0.0;
     }
 
+    /**
+     * Tick time at the given quantile (0.0 - 1.0) of the recorded samples, in milliseconds.
+     * Empty sample slots (before the server has run 100 ticks) are ignored.
+     */
+    public static double getTickTimePercentile(long[] tickTimes, double quantile) {
+        if (tickTimes == null) return 0.0;
+        long[] samples = Arrays.stream(tickTimes).filter(value -> value > 0).sorted().toArray();
+        if (samples.length == 0) return 0.0;
+
+        int index = (int) Math.ceil(quantile * samples.length) - 1;
+        index = Math.max(0, Math.min(samples.length - 1, index));
+        return samples[index] / 1_000_000.0;
+    }
+
     public static int getTotalLoadedChunks(MinecraftServer server) {
         int totalChunks = 0;
         for (ServerWorld world : server.getWorlds()) {
@@ -0,0 +1,52 @@
+package com.lagcut.mixin.aithrottling;
+
+import com.lagcut.AIModification;
+import com.lagcut.PathfindingScheduler;
+import net.minecraft.entity.ai.pathing.EntityNavigation;
+import net.minecraft.entity.ai.pathing.Path;
+import net.minecraft.entity.mob.MobEntity;
+import net.minecraft.util.math.BlockPos;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.Set;
+
+@Mixin(EntityNavigation.class)
+public abstract class EntityNavigationMixin {
+    @Shadow
+    @Final
+    protected MobEntity entity;
+
+    @Unique
+    private long pathStartNanos;
+
+    /**
+     * Every path request ends up here. When the mob's tier does not allow pathfinding this
+     * tick, or the world's pathfinding budget is used up, no path is found and the goal
+     * asking for it retries later.
+     */
+    @Inject(method = "findPathToAny(Ljava/util/Set;IZIF)Lnet/minecraft/entity/ai/pathing/Path;", at = @At("HEAD"), cancellable = true)
+    private void onFindPathToAny(Set<BlockPos> positions, int range, boolean useHeadPos, int distance, float followRange,
+                                 CallbackInfoReturnable<Path> cir) {
+        if (!AIModification.shouldPathfind(entity) || !PathfindingScheduler.tryAdmit(entity)) {
+            pathStartNanos = 0L;
+            cir.setReturnValue(null);
+            return;
+        }
+        pathStartNanos = System.nanoTime();
+    }
+
+    @Inject(method = "findPathToAny(Ljava/util/Set;IZIF)Lnet/minecraft/entity/ai/pathing/Path;", at = @At("RETURN"))
+    private void afterFindPathToAny(Set<BlockPos> positions, int range, boolean useHeadPos, int distance, float followRange,
+                                    CallbackInfoReturnable<Path> cir) {
+        if (pathStartNanos != 0L) {
+            PathfindingScheduler.onPathComputed(entity, System.nanoTime() - pathStartNanos);
+            pathStartNanos = 0L;
+        }
+    }
+}
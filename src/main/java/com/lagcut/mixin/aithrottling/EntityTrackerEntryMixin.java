@@ -0,0 +1,29 @@
+package com.lagcut.mixin.aithrottling;
+
+import com.lagcut.AIModification;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.network.EntityTrackerEntry;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(EntityTrackerEntry.class)
+public abstract class EntityTrackerEntryMixin {
+    @Shadow
+    @Final
+    private Entity entity;
+
+    /**
+     * Dirty tracked data stays dirty while the sync is skipped and is sent in full on the
+     * next allowed tick.
+     */
+    @Inject(method = "syncEntityData", at = @At("HEAD"), cancellable = true)
+    private void onSyncEntityData(CallbackInfo ci) {
+        if (!AIModification.shouldSyncTrackedData(entity)) {
+            ci.cancel();
+        }
+    }
+}
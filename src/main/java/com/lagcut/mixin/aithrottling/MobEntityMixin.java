@@ -1,11 +1,15 @@
 package com.lagcut.mixin.aithrottling;
 
 import com.lagcut.AIModification;
+import com.lagcut.mixin.MobEntityAccessor;
+import net.minecraft.entity.ai.control.LookControl;
+import net.minecraft.entity.ai.goal.GoalSelector;
 import net.minecraft.entity.mob.MobEntity;
 import net.minecraft.util.math.BlockPos;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
@@ -13,46 +17,45 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 public abstract class MobEntityMixin {
 
     /**
-     * Cancels the isInWalkTargetRange method when the mob is not in an active chunk.
-     * If the mob is out of an active chunk, the method will immediately return false.
+     * Frozen mobs never consider a walk target to be in range.
      */
     @Inject(method = "isInWalkTargetRange(Lnet/minecraft/util/math/BlockPos;)Z", at = @At("HEAD"), cancellable = true)
     private void onIsInWalkTargetRange(BlockPos pos, CallbackInfoReturnable<Boolean> cir) {
         MobEntity mob = (MobEntity) (Object) this;
-        if (!AIModification.isEntityInActiveChunk(mob)) {
+        if (AIModification.getTier(mob) == AIModification.AILodTier.FROZEN) {
             cir.setReturnValue(false);
         }
     }
 
     /**
-     * Cancels the onStartPathfinding method when the mob is not in an active chunk.
+     * Cancels the onStartPathfinding method when the mob is frozen.
      */
     @Inject(method = "onStartPathfinding", at = @At("HEAD"), cancellable = true)
     private void onStartPathfinding(CallbackInfo ci) {
         MobEntity mob = (MobEntity) (Object) this;
-        if (!AIModification.isEntityInActiveChunk(mob)) {
+        if (AIModification.getTier(mob) == AIModification.AILodTier.FROZEN) {
             ci.cancel();
         }
     }
 
     /**
-     * Cancels the changeAngle method when the mob is not in an active chunk.
+     * Keeps the current angle on ticks where the mob's look control is skipped.
      */
     @Inject(method = "changeAngle", at = @At("HEAD"), cancellable = true)
-    private void onChangeAngle(float from, float _to, float max, CallbackInfoReturnable<Float> cir) {
+    private void onChangeAngle(float from, float to, float max, CallbackInfoReturnable<Float> cir) {
         MobEntity mob = (MobEntity) (Object) this;
-        if (!AIModification.isEntityInActiveChunk(mob)) {
-            cir.cancel();
+        if (!AIModification.shouldUpdateLook(mob)) {
+            cir.setReturnValue(from);
         }
     }
 
     /**
-     * Cancels the lookAtEntity method when the mob is not in an active chunk.
+     * Skips the lookAtEntity method on ticks where the mob's look control is skipped.
      */
     @Inject(method = "lookAtEntity", at = @At("HEAD"), cancellable = true)
     private void onLookAtEntity(CallbackInfo ci) {
         MobEntity mob = (MobEntity) (Object) this;
-        if (!AIModification.isEntityInActiveChunk(mob)) {
+        if (!AIModification.shouldUpdateLook(mob)) {
             ci.cancel();
         }
     }
@@ -60,8 +63,31 @@ public abstract class MobEntityMixin {
     @Inject(method = "tickMovement", at = @At("HEAD"), cancellable = true)
     private void onTickMovement(CallbackInfo ci) {
         MobEntity mob = (MobEntity) (Object) this;
-        if (!AIModification.isEntityInActiveChunk(mob)) {
+        if (!AIModification.shouldTickMovement(mob)) {
             ci.cancel();
         }
     }
+
+    /**
+     * On ticks where goal or target selection is skipped, running goals keep their state and
+     * only the ones that must run every tick are ticked, the same as vanilla does on every
+     * other tick.
+     */
+    @Redirect(method = "tickNewAi", at = @At(value = "INVOKE", target = "Lnet/minecraft/entity/ai/goal/GoalSelector;tick()V"))
+    private void onSelectorTick(GoalSelector selector) {
+        MobEntity mob = (MobEntity) (Object) this;
+        boolean targetSelector = selector == ((MobEntityAccessor) mob).getTargetSelector();
+        if (AIModification.shouldTickSelector(mob, targetSelector)) {
+            selector.tick();
+        } else {
+            selector.tickGoals(false);
+        }
+    }
+
+    @Redirect(method = "tickNewAi", at = @At(value = "INVOKE", target = "Lnet/minecraft/entity/ai/control/LookControl;tick()V"))
+    private void onLookControlTick(LookControl lookControl) {
+        if (AIModification.shouldUpdateLook((MobEntity) (Object) this)) {
+            lookControl.tick();
+        }
+    }
 }
@@ -1,16 +1,15 @@
 package com.lagcut.mixin.itemstacking;
 
+import com.lagcut.ItemSpatialIndex;
 import com.lagcut.ItemStackingManager;
+import com.lagcut.NametagOcclusion;
+import com.lagcut.api.ItemDisplayState;
+import com.lagcut.api.ItemIndexHolder;
 import com.lagcut.utils.LagCutConfig;
 import net.minecraft.entity.ItemEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
-import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.util.hit.BlockHitResult;
-import net.minecraft.util.hit.HitResult;
-import net.minecraft.util.math.Vec3d;
-import net.minecraft.world.RaycastContext;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -19,26 +18,61 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @Mixin(ItemEntity.class)
-public class ItemEntityMixin {
+public class ItemEntityMixin implements ItemIndexHolder, ItemDisplayState {
     @Unique
     private static final int CHECK_INTERVAL = 10;
+    // Periodic merge rechecks, like vanilla's own tryMerge cadence but less eager
+    @Unique
+    private static final int MOVING_MERGE_INTERVAL = 10;
+    @Unique
+    private static final int IDLE_MERGE_INTERVAL = 40;
+    @Unique
+    private boolean wasOnGround = false;
+    @Unique
+    private boolean wasInFluid = false;
+    @Unique
+    private int lastStackCount = -1;
+    @Unique
+    private long indexCell;
+    @Unique
+    private long indexBucket;
+    @Unique
+    private long indexFingerprint;
+    @Unique
+    private int indexEpoch;
     @Unique
-    private final Map<ServerPlayerEntity, Integer> lastChecked = new HashMap<>();
+    private int displayedCount = -1;
+    @Unique
+    private int displayEpoch = -1;
 
     @Inject(method = "tick", at = @At("HEAD"))
     public void onItemTick(CallbackInfo ci) {
         ItemEntity itemEntity = (ItemEntity) (Object) this;
+        if (itemEntity.getWorld().isClient) return;
 
         if (itemEntity.age == 1) {
             ItemStackingManager.INSTANCE.updateItemDisplay(itemEntity);
         }
 
-        // Always try to merge, not just when on ground
-        ItemStackingManager.INSTANCE.tryMergeItemEntities(itemEntity);
+        if (LagCutConfig.INSTANCE.getConfig().getItemStacking().getEnabled()) {
+            ItemSpatialIndex.INSTANCE.onTick(itemEntity);
+        }
+
+        // Queue a merge attempt when something changed (spawn, landing, entering a fluid or a new
+        // count) and periodically, since vanilla's tryMerge is cancelled: items carried by a stream
+        // never land, yet drift into each other. Moving items are rechecked more often.
+        boolean onGround = itemEntity.isOnGround();
+        boolean inFluid = itemEntity.isTouchingWater() || itemEntity.isInLava();
+        int stackCount = itemEntity.getStack().getCount();
+        int recheckInterval = itemEntity.getVelocity().lengthSquared() > 1.0E-4 ? MOVING_MERGE_INTERVAL : IDLE_MERGE_INTERVAL;
+        if (stackCount != lastStackCount || (onGround && !wasOnGround) || (inFluid && !wasInFluid) ||
+                (itemEntity.age + itemEntity.getId()) % recheckInterval == 0) {
+            ItemStackingManager.INSTANCE.enqueueMerge(itemEntity);
+        }
+        wasOnGround = onGround;
+        wasInFluid = inFluid;
+        lastStackCount = stackCount;
 
         // Handle nametag visibility if needed
         if (itemEntity.hasCustomName() && itemEntity.age % CHECK_INTERVAL == 0) {
@@ -54,31 +88,8 @@ public class ItemEntityMixin {
             return;
         }
 
-        itemEntity.getWorld().getPlayers().forEach(player -> {
-            if (player instanceof ServerPlayerEntity serverPlayer) {
-                itemEntity.setCustomNameVisible(isItemVisibleToPlayer(itemEntity, serverPlayer));
-            }
-        });
-    }
-
-    @Unique
-    private boolean isItemVisibleToPlayer(ItemEntity item, ServerPlayerEntity player) {
-        Vec3d playerEyePos = player.getCameraPosVec(1.0f);
-        Vec3d itemPos = new Vec3d(item.getX(), item.getY() + item.getHeight() / 2, item.getZ());
-
-        if (playerEyePos.squaredDistanceTo(itemPos) > 500.0D) return false;
-
-        HitResult hitResult = player.getWorld().raycast(new RaycastContext(
-                playerEyePos,
-                itemPos,
-                RaycastContext.ShapeType.COLLIDER,
-                RaycastContext.FluidHandling.NONE,
-                player
-        ));
-
-        return hitResult == null || hitResult.getType() == HitResult.Type.MISS ||
-                (hitResult instanceof BlockHitResult blockHit &&
-                        blockHit.getBlockPos().equals(item.getBlockPos()));
+        // Visibility is decided per player by the occlusion service
+        NametagOcclusion.INSTANCE.watch(itemEntity);
     }
 
     @Inject(method = "writeCustomDataToNbt", at = @At("HEAD"))
@@ -101,7 +112,28 @@ public class ItemEntityMixin {
             );
 
             item.getWorld().spawnEntity(overflowEntity);
-            ItemStackingManager.INSTANCE.tryMergeItemEntities(overflowEntity);
+            ItemStackingManager.INSTANCE.enqueueMerge(overflowEntity);
+        }
+    }
+
+    /**
+     * LagCut is the single merge authority for items it stacks, so vanilla's periodic
+     * neighbour scan is skipped for them.
+     */
+    @Inject(method = "tryMerge()V", at = @At("HEAD"), cancellable = true)
+    private void onVanillaTryMerge(CallbackInfo ci) {
+        if (ItemStackingManager.INSTANCE.isMergeAuthority((ItemEntity) (Object) this)) {
+            ci.cancel();
+        }
+    }
+
+    @Inject(method = "setStack", at = @At("RETURN"))
+    private void onSetStack(ItemStack stack, CallbackInfo ci) {
+        ItemEntity self = (ItemEntity) (Object) this;
+        if (!self.getWorld().isClient) {
+            // The bucket key and the nametag depend on the stack, rebuild both
+            ItemSpatialIndex.INSTANCE.remove(self);
+            displayedCount = -1;
         }
     }
 
@@ -113,4 +145,48 @@ public class ItemEntityMixin {
             cir.setReturnValue(false);  // false means it CAN be picked up
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public long lagcut$getIndexCell() {
+        return indexCell;
+    }
+
+    @Override
+    public long lagcut$getIndexBucket() {
+        return indexBucket;
+    }
+
+    @Override
+    public long lagcut$getIndexFingerprint() {
+        return indexFingerprint;
+    }
+
+    @Override
+    public int lagcut$getIndexEpoch() {
+        return indexEpoch;
+    }
+
+    @Override
+    public void lagcut$setIndexEntry(long cell, long bucket, long fingerprint, int epoch) {
+        this.indexCell = cell;
+        this.indexBucket = bucket;
+        this.indexFingerprint = fingerprint;
+        this.indexEpoch = epoch;
+    }
+
+    @Override
+    public int lagcut$getDisplayedCount() {
+        return displayedCount;
+    }
+
+    @Override
+    public int lagcut$getDisplayEpoch() {
+        return displayEpoch;
+    }
+
+    @Override
+    public void lagcut$setDisplayState(int count, int epoch) {
+        this.displayedCount = count;
+        this.displayEpoch = epoch;
+    }
+}
@@ -0,0 +1,55 @@
+package com.lagcut.mixin.itemstacking;
+
+import com.lagcut.ItemStackingManager;
+import com.lagcut.api.ComponentFingerprintHolder;
+import net.minecraft.item.ItemStack;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(ItemStack.class)
+public class ItemStackMixin implements ComponentFingerprintHolder {
+    @Unique
+    private long componentFingerprint;
+    @Unique
+    private boolean fingerprintValid = false;
+
+    @Override
+    public long lagcut$getComponentFingerprint() {
+        if (!fingerprintValid) {
+            componentFingerprint = ItemStackingManager.INSTANCE.computeComponentFingerprint((ItemStack) (Object) this);
+            fingerprintValid = true;
+        }
+        return componentFingerprint;
+    }
+
+    //region Invalidation on component changes
+    @Inject(method = "set", at = @At("RETURN"))
+    private void onSet(CallbackInfoReturnable<?> cir) {
+        fingerprintValid = false;
+    }
+
+    @Inject(method = "remove", at = @At("RETURN"))
+    private void onRemove(CallbackInfoReturnable<?> cir) {
+        fingerprintValid = false;
+    }
+
+    @Inject(method = "applyChanges", at = @At("RETURN"))
+    private void onApplyChanges(CallbackInfo ci) {
+        fingerprintValid = false;
+    }
+
+    @Inject(method = "applyUnvalidatedChanges", at = @At("RETURN"))
+    private void onApplyUnvalidatedChanges(CallbackInfo ci) {
+        fingerprintValid = false;
+    }
+
+    @Inject(method = "applyComponentsFrom", at = @At("RETURN"))
+    private void onApplyComponentsFrom(CallbackInfo ci) {
+        fingerprintValid = false;
+    }
+    //endregion
+}
@@ -1,33 +1,30 @@
 package com.lagcut.mixin.mobstacking;
 
 import com.lagcut.EntityStackManager;
+import com.lagcut.NametagOcclusion;
 import com.lagcut.api.StackDataProvider;
 import com.lagcut.utils.LagCutConfig;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.damage.DamageSource;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.util.hit.BlockHitResult;
-import net.minecraft.util.hit.HitResult;
-import net.minecraft.util.math.Vec3d;
-import net.minecraft.world.RaycastContext;
+import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
-
-import java.util.WeakHashMap;
-import java.util.Map;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(LivingEntity.class)
 public class LivingEntityStackMixin {
     @Unique
     private static final int CHECK_INTERVAL = 10;
-    @Unique
-    private static final double MAX_VISIBILITY_DISTANCE_SQ = 1000.0D;
-    @Unique
-    private final Map<ServerPlayerEntity, Integer> lastChecked = new WeakHashMap<>();
+
+    @Shadow
+    @Nullable
+    protected PlayerEntity attackingPlayer;
 
     @Inject(method = "tick", at = @At("HEAD"))
     private void onEntityTick(CallbackInfo ci) {
@@ -51,54 +48,31 @@ public class LivingEntityStackMixin {
 
     @Unique
     private void updateNametagVisibility(LivingEntity entity, StackDataProvider provider) {
-        boolean currentVisibility = entity.isCustomNameVisible();
         boolean hideNametags = LagCutConfig.INSTANCE.getConfig()
                 .getEntityStacking()
                 .getHideNametagsThroughBlocks();
 
         if (!hideNametags) {
-            if (!currentVisibility) entity.setCustomNameVisible(true);
+            if (!entity.isCustomNameVisible()) entity.setCustomNameVisible(true);
             return;
         }
 
-        entity.getWorld().getPlayers().stream()
-                .filter(player -> player instanceof ServerPlayerEntity)
-                .map(player -> (ServerPlayerEntity)player)
-                .forEach(serverPlayer -> {
-                    lastChecked.put(serverPlayer, entity.age);
-                    boolean visible = isEntityVisibleToPlayer(entity, serverPlayer);
-                    if (currentVisibility != visible) {
-                        entity.setCustomNameVisible(visible);
-                    }
-                });
+        // Visibility is decided per player by the occlusion service
+        NametagOcclusion.INSTANCE.watch(entity);
     }
 
-    @Unique
-    private boolean isEntityVisibleToPlayer(LivingEntity entity, ServerPlayerEntity player) {
-        Vec3d cameraPos = player.getCameraPosVec(1.0f);  // Get exact camera view position
-        Vec3d entityPos = entity.getPos().add(0, entity.getHeight() / 2, 0);
+    // Vanilla's last chance to cancel a death; with the stack health pool on, one member dies instead
+    @Inject(method = "tryUseTotem", at = @At("HEAD"), cancellable = true)
+    private void onLethalDamage(DamageSource damageSource, CallbackInfoReturnable<Boolean> cir) {
+        LivingEntity self = (LivingEntity)(Object)this;
 
-        if (cameraPos.squaredDistanceTo(entityPos) > MAX_VISIBILITY_DISTANCE_SQ) {
-            return false;
-        }
+        if (self instanceof ServerPlayerEntity) return;
 
-        HitResult hitResult = player.getWorld().raycast(new RaycastContext(
-                cameraPos,
-                entityPos,
-                RaycastContext.ShapeType.COLLIDER,
-                RaycastContext.FluidHandling.NONE,
-                player
-        ));
-
-        return hitResult == null ||
-                hitResult.getType() == HitResult.Type.MISS ||
-                (hitResult instanceof BlockHitResult blockHit &&
-                        blockHit.getBlockPos().equals(entity.getBlockPos()));
+        if (EntityStackManager.INSTANCE.absorbLethalDamage(self, damageSource, attackingPlayer)) {
+            cir.setReturnValue(true);
+        }
     }
 
-
-
-
     @Inject(method = "onDeath", at = @At("HEAD"))
     private void onEntityDeath(DamageSource damageSource, CallbackInfo ci) {
         LivingEntity self = (LivingEntity)(Object)this;
@@ -121,7 +95,8 @@ public class LivingEntityStackMixin {
                     self.getPos(),
                     self.getYaw(),
                     self.getPitch(),
-                    attacker  // Pass the attacker
+                    attacker,  // Pass the attacker
+                    damageSource
             );
         }
     }
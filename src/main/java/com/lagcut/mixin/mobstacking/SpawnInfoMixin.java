@@ -1,5 +1,6 @@
 package com.lagcut.mixin.mobstacking;
 
+import com.lagcut.LagCutProfiler;
 import com.lagcut.api.StackDataProvider;
 import com.lagcut.api.WorldStore;
 import com.lagcut.utils.LagCutConfig;
@@ -32,6 +33,7 @@ public abstract class SpawnInfoMixin {
             cancellable = true
     )
     private void checkSpawnCap(SpawnGroup group, ChunkPos chunkPos, CallbackInfoReturnable<Boolean> cir) {
+        long started = LagCutProfiler.begin();
         try {
             ServerWorld world = WorldStore.getCurrentWorld();
             if (world == null) {
@@ -79,6 +81,8 @@ public abstract class SpawnInfoMixin {
 
         } catch (Exception e) {
             LOGGER.error("Error checking cap", e);
+        } finally {
+            LagCutProfiler.end(LagCutProfiler.Section.SPAWN_CAP, started);
         }
     }
 }
@@ -0,0 +1,29 @@
+package com.lagcut.mixin.other;
+
+import com.lagcut.DensityIndex;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.entity.EntityLike;
+import org.objectweb.asm.Opcodes;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(targets = "net.minecraft.server.world.ServerEntityManager$Listener")
+public class EntityListenerMixin {
+
+    @Shadow @Final private EntityLike entity;
+
+    // Only reached when the entity actually moved into another section
+    @Inject(
+            method = "updateEntityPosition",
+            at = @At(value = "FIELD", target = "Lnet/minecraft/server/world/ServerEntityManager$Listener;sectionKey:J", opcode = Opcodes.PUTFIELD, shift = At.Shift.AFTER)
+    )
+    private void onSectionChanged(CallbackInfo ci) {
+        if (this.entity instanceof Entity movedEntity) {
+            DensityIndex.onSectionChanged(movedEntity);
+        }
+    }
+}
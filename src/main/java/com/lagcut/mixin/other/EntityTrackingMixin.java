@@ -0,0 +1,23 @@
+package com.lagcut.mixin.other;
+
+import com.lagcut.NametagOcclusion;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(Entity.class)
+public class EntityTrackingMixin {
+
+    @Inject(method = "onStartedTrackingBy", at = @At("TAIL"))
+    private void onStartedTracking(ServerPlayerEntity player, CallbackInfo ci) {
+        NametagOcclusion.INSTANCE.onTrackingChanged((Entity) (Object) this, player);
+    }
+
+    @Inject(method = "onStoppedTrackingBy", at = @At("TAIL"))
+    private void onStoppedTracking(ServerPlayerEntity player, CallbackInfo ci) {
+        NametagOcclusion.INSTANCE.onTrackingChanged((Entity) (Object) this, player);
+    }
+}
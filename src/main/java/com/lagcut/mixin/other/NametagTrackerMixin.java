@@ -0,0 +1,33 @@
+package com.lagcut.mixin.other;
+
+import com.lagcut.NametagOcclusion;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.data.DataTracker;
+import net.minecraft.server.network.EntityTrackerEntry;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyArg;
+
+import java.util.List;
+
+@Mixin(EntityTrackerEntry.class)
+public abstract class NametagTrackerMixin {
+    @Shadow
+    @Final
+    private Entity entity;
+
+    /**
+     * Keeps the shared custom-name-visible flag of per-player nametags out of both the
+     * periodic data sync and the data sent to players that start tracking.
+     */
+    @ModifyArg(
+            method = {"syncEntityData", "sendPackets"},
+            at = @At(value = "NEW", target = "(ILjava/util/List;)Lnet/minecraft/network/packet/s2c/play/EntityTrackerUpdateS2CPacket;"),
+            index = 1
+    )
+    private List<DataTracker.SerializedEntry<?>> stripNameVisible(List<DataTracker.SerializedEntry<?>> entries) {
+        return NametagOcclusion.filterTrackedData(entity, entries);
+    }
+}
@@ -1,6 +1,10 @@
 package com.lagcut
 
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
 import net.minecraft.entity.Entity
 import net.minecraft.entity.mob.MobEntity
 import net.minecraft.network.packet.s2c.play.ParticleS2CPacket
@@ -9,50 +13,39 @@ import net.minecraft.particle.ParticleTypes
 import net.minecraft.server.MinecraftServer
 import net.minecraft.server.network.ServerPlayerEntity
 import net.minecraft.server.world.ServerWorld
+import net.minecraft.util.math.ChunkPos
+import com.lagcut.api.StackDataProvider
+import com.lagcut.integration.CobblemonIntegration
+import com.lagcut.utils.AITierSettings
 import com.lagcut.utils.LagCutConfig
 import com.blanketutils.utils.logDebug
 
-import kotlin.math.floor
-import kotlin.math.abs
-import java.util.Collections
-import java.util.WeakHashMap
+import kotlin.math.max
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 
 object AIModification {
-    // Config now only has an "enabled" checkbox.
-    private val config = LagCutConfig.config.aiThrottling
-    private var debug = false
+    private val config get() = LagCutConfig.config.aiThrottling
 
     // Define the size of a chunk in blocks
     private const val CHUNK_SIZE = 16.0
 
-    // Mapping of chunk keys to the set of entities within that chunk.
-    // Each set is built on top of a WeakHashMap so that removed entities aren’t kept in memory.
-    private val entityChunkMap = mutableMapOf<Long, MutableSet<Entity>>()
-
-    // Data class to hold chunk coordinates
-    data class ChunkCoord(val x: Int, val z: Int) {
-        fun toKey(): Long = (x.toLong() shl 32) or (z.toLong() and 0xFFFFFFFF)
-
-        companion object {
-            // Create a chunk coordinate from an entity's position
-            fun fromEntity(entity: Entity): ChunkCoord {
-                return ChunkCoord(
-                    floor(entity.x / CHUNK_SIZE).toInt(),
-                    floor(entity.z / CHUNK_SIZE).toInt()
-                )
-            }
+    /**
+     * AI level of detail, from the chunk distance between a mob and its nearest player.
+     * Every tier except FULL runs movement, goal selection, pathfinding and look control
+     * at the intervals configured for it.
+     */
+    enum class AILodTier { FULL, REDUCED, MINIMAL, FROZEN }
 
-            // Create a chunk coordinate from a player's position
-            fun fromPlayer(player: ServerPlayerEntity): ChunkCoord {
-                return ChunkCoord(
-                    floor(player.x / CHUNK_SIZE).toInt(),
-                    floor(player.z / CHUNK_SIZE).toInt()
-                )
-            }
-        }
-    }
+    private val FROZEN_ORDINAL = AILodTier.FROZEN.ordinal.toByte()
+    private val tiers = AILodTier.entries.toTypedArray()
+
+    // Chunk key -> tier ordinal for every chunk within minimalChunkRadius of a player,
+    // rebuilt at the start of each world tick; chunks not in the map are frozen.
+    // The maps are reused from tick to tick, so lookups and rebuilds do not allocate.
+    private val tierMaps = Reference2ObjectOpenHashMap<ServerWorld, Long2ByteOpenHashMap>()
+    private var playerChunks = LongArray(16)
+    private var eventsRegistered = false
 
     // A scheduler that will trigger our periodic work.
     private val scheduler = Executors.newSingleThreadScheduledExecutor()
@@ -63,6 +56,15 @@ object AIModification {
      * and schedule our repeating task.
      */
     fun initialize() {
+        if (!eventsRegistered) {
+            eventsRegistered = true
+            ServerTickEvents.START_WORLD_TICK.register { world ->
+                val started = LagCutProfiler.begin()
+                rebuildTierMap(world)
+                LagCutProfiler.end(LagCutProfiler.Section.AI_TIER_MAP, started)
+            }
+        }
+
         ServerLifecycleEvents.SERVER_STARTED.register { server: MinecraftServer ->
             // Schedule our task to run every second (roughly 20 ticks).
             scheduler.scheduleAtFixedRate({
@@ -77,93 +79,65 @@ object AIModification {
     }
 
     fun shutdown() {
+        tierMaps.clear()
+        AIThrottleController.reset()
         // Shutdown the scheduler to prevent tasks from lingering after server stop.
         ClearLag.scheduler.shutdownNow()
         logDebug("[RATL] ClearLag scheduler shut down", "lagcut")
     }
 
     /**
-     * Process all worlds on the server.
-     * For each world, we rebuild the spatial grid, process all relevant entities,
-     * and (if debug is enabled) render debug particles.
+     * Renders the full-AI area of every world with players in it when debug particles are on.
      */
     private fun processServer(server: MinecraftServer) {
-        // Clear the spatial grid for the current cycle.
-        entityChunkMap.clear()
+        if (!config.renderDebugParticles) return
 
         server.worlds.forEach { world ->
             val players = world.players.filterIsInstance<ServerPlayerEntity>()
             if (players.isNotEmpty()) {
-                updateSpatialGrid(world)
-                processEntitiesInUnionChunks(world, players)
-                if (debug) {
-                    renderDebugParticlesForWorld(world, players)
-                }
+                renderDebugParticlesForWorld(world, players)
             }
         }
     }
 
-    /**
-     * Update the spatial grid for the world.
-     * Each mob entity is placed into its chunk’s set.
-     */
-    private fun updateSpatialGrid(world: ServerWorld) {
-        world.iterateEntities()
-            .filter { it !is ServerPlayerEntity }
-            .filterIsInstance<MobEntity>()
-            .forEach { entity ->
-                val chunk = ChunkCoord.fromEntity(entity)
-                // Use a weak–reference set so that entities that are removed don’t stay in memory.
-                val set = entityChunkMap.getOrPut(chunk.toKey()) {
-                    Collections.newSetFromMap(WeakHashMap())
-                }
-                set.add(entity)
-            }
-    }
-
-    /**
-     * Returns the set of chunk coordinates in a 3×3 grid centered around the player's current chunk.
-     */
-    private fun get3x3Chunks(player: ServerPlayerEntity): Set<ChunkCoord> {
-        val center = ChunkCoord.fromPlayer(player)
-        val chunks = mutableSetOf<ChunkCoord>()
-        for (dx in -1..1) {
-            for (dz in -1..1) {
-                chunks.add(ChunkCoord(center.x + dx, center.z + dz))
-            }
+    private fun rebuildTierMap(world: ServerWorld) {
+        var tierMap = tierMaps.get(world)
+        if (tierMap == null) {
+            tierMap = Long2ByteOpenHashMap().apply { defaultReturnValue(FROZEN_ORDINAL) }
+            tierMaps.put(world, tierMap)
         }
-        return chunks
-    }
+        tierMap.clear()
 
-    /**
-     * Process all entities that are in any of the chunks in the union of
-     * all players’ 3×3 grids. This avoids processing the same chunk multiple times
-     * when players overlap.
-     */
-    private fun processEntitiesInUnionChunks(world: ServerWorld, players: List<ServerPlayerEntity>) {
-        val unionChunks = mutableSetOf<ChunkCoord>()
-        players.forEach { player ->
-            unionChunks.addAll(get3x3Chunks(player))
-        }
-        unionChunks.forEach { chunk ->
-            entityChunkMap[chunk.toKey()]?.forEach { entity ->
-                // Place your AI activation/throttling logic here.
-                // For example: entity.activateAI() or similar.
-            }
+        val settings = config
+        if (!settings.enabled) return
+
+        // Under load the controller pulls every tier boundary closer to the players
+        val reduction = AIThrottleController.radiusReduction
+        val fullRadius = max(0, settings.chunkRadius - reduction)
+        val reducedRadius = max(fullRadius, settings.reducedChunkRadius - reduction)
+        val outerRadius = max(reducedRadius, settings.minimalChunkRadius - reduction)
+
+        val players = world.players
+        if (playerChunks.size < players.size) playerChunks = LongArray(players.size * 2)
+        for (i in players.indices) {
+            playerChunks[i] = players[i].chunkPos.toLong()
         }
+        AITierGrid.fill(tierMap, playerChunks, players.size, fullRadius, reducedRadius, outerRadius)
     }
 
     /**
      * Render debug particles outlining the border of each active chunk.
-     * This uses the union of all players’ 3×3 grids so that overlapping chunks aren’t rendered multiple times.
+     * This uses the union of all players’ grids so that overlapping chunks aren’t rendered multiple times.
      */
     private fun renderDebugParticlesForWorld(world: ServerWorld, players: List<ServerPlayerEntity>) {
         if (players.isEmpty()) return
 
-        // Calculate the union of all 3x3 chunk grids from every player.
-        val unionChunks = mutableSetOf<ChunkCoord>()
-        players.forEach { player ->
-            unionChunks.addAll(get3x3Chunks(player))
+        // The full-AI chunks of all players, each rendered once
+        val tierMap = tierMaps.get(world) ?: return
+        val fullOrdinal = AILodTier.FULL.ordinal.toByte()
+        val fullChunks = LongArrayList()
+        for (entry in tierMap.long2ByteEntrySet()) {
+            if (entry.byteValue == fullOrdinal) fullChunks.add(entry.longKey)
         }
 
         // Define the particle effect.
@@ -174,10 +148,10 @@ object AIModification {
         // Fixed Y coordinate for debugging.
         val y = 70.0
 
-        unionChunks.forEach { chunk ->
+        for (chunkKey in fullChunks.toLongArray()) {
             // World coordinate of the chunk's origin (lower corner)
-            val chunkOriginX = chunk.x * CHUNK_SIZE
-            val chunkOriginZ = chunk.z * CHUNK_SIZE
+            val chunkOriginX = ChunkPos.getPackedX(chunkKey) * CHUNK_SIZE
+            val chunkOriginZ = ChunkPos.getPackedZ(chunkKey) * CHUNK_SIZE
 
             // Top edge: from left to right.
             for (i in 0 until ringSteps) {
@@ -258,20 +232,123 @@ object AIModification {
     }
 
     /**
-     * Utility: Determine whether an entity is in an “active” chunk.
-     * An active chunk is defined as any chunk within a 3×3 grid around at least one player.
+     * Returns the AI tier of an entity from its chunk distance (Chebyshev, so the full tier
+     * matches the chunkGridSize square) to the nearest player in its world, as of the start
+     * of the current world tick.
      */
     @JvmStatic
-    fun isEntityInActiveChunk(entity: Entity): Boolean {
-        val world = entity.world
-        if (world !is ServerWorld) return false
-        val entityChunk = ChunkCoord.fromEntity(entity)
-        for (player in world.players.filterIsInstance<ServerPlayerEntity>()) {
-            val playerChunk = ChunkCoord.fromPlayer(player)
-            if (abs(entityChunk.x - playerChunk.x) <= 1 && abs(entityChunk.z - playerChunk.z) <= 1) {
-                return true
+    fun getTier(entity: Entity): AILodTier {
+        val started = LagCutProfiler.beginSampled(LagCutProfiler.Section.AI_TIER_LOOKUP)
+        val tier = computeTier(entity)
+        LagCutProfiler.endSampled(LagCutProfiler.Section.AI_TIER_LOOKUP, started)
+        return tier
+    }
+
+    private fun computeTier(entity: Entity): AILodTier {
+        val settings = config
+        if (!settings.enabled) return AILodTier.FULL
+        val world = entity.world as? ServerWorld ?: return AILodTier.FULL
+        val tierMap = tierMaps.get(world) ?: return AILodTier.FULL
+        val ordinal = tierMap.get(entity.chunkPos.toLong()).toInt()
+
+        if (Lagcut.isCobblemonPresent && settings.cobblemonAware) {
+            when (CobblemonIntegration.getAIState(entity)) {
+                CobblemonIntegration.PokemonAIState.EXEMPT -> return AILodTier.FULL
+                CobblemonIntegration.PokemonAIState.WILD_IDLE ->
+                    return tiers[(ordinal + settings.wildPokemonTierShift).coerceIn(0, tiers.size - 1)]
+                else -> {}
             }
         }
-        return false
+        return tiers[ordinal]
+    }
+
+    /**
+     * Whether the tracked data of [entity] may be sent to clients this tick. Wild idle Pokémon
+     * outside the full tier sync less often; whatever changed meanwhile goes out on the next
+     * allowed tick, so nothing is lost.
+     */
+    @JvmStatic
+    fun shouldSyncTrackedData(entity: Entity): Boolean {
+        val settings = config
+        if (!settings.enabled || !settings.cobblemonAware || !Lagcut.isCobblemonPresent) return true
+        if (settings.wildPokemonSyncInterval <= 1) return true
+        if (CobblemonIntegration.getAIState(entity) != CobblemonIntegration.PokemonAIState.WILD_IDLE) return true
+        if (getTier(entity) == AILodTier.FULL) return true
+        return Math.floorMod(entity.age + entity.id, settings.wildPokemonSyncInterval) == 0
+    }
+
+    @JvmStatic
+    fun shouldTickMovement(mob: MobEntity): Boolean = LagCutMetrics.throttled(
+        LagCutMetrics.AIPart.MOVEMENT,
+        isDue(mob, tierSettings(getTier(mob))?.movementInterval, AIThrottleController.intervalScale)
+    )
+
+    /**
+     * Whether the goal or target selector of [mob] may pick new goals this tick. Stacked mobs
+     * stand in for a whole stack, so they are held to their own interval even in the full tier.
+     */
+    @JvmStatic
+    fun shouldTickSelector(mob: MobEntity, targetSelector: Boolean): Boolean = LagCutMetrics.throttled(
+        if (targetSelector) LagCutMetrics.AIPart.TARGETS else LagCutMetrics.AIPart.GOALS,
+        isSelectorDue(mob, targetSelector)
+    )
+
+    private fun isSelectorDue(mob: MobEntity, targetSelector: Boolean): Boolean {
+        val tierSettings = tierSettings(getTier(mob))
+        val tierInterval = if (targetSelector) tierSettings?.targetInterval else tierSettings?.goalInterval
+        if (!isSelectorCallDue(mob, tierInterval, AIThrottleController.intervalScale)) return false
+
+        val settings = config
+        if (!settings.enabled || !settings.throttleStackedMobSelectors) return true
+        val provider = mob as StackDataProvider
+        if (!provider.isStackedCompat() || provider.getStackSizeCompat() <= 1) return true
+        return isSelectorCallDue(mob, if (targetSelector) settings.stackedMobTargetInterval else settings.stackedMobGoalInterval, 1)
+    }
+
+    private fun isSelectorCallDue(mob: MobEntity, interval: Int?, scale: Int): Boolean = when {
+        interval == null -> true
+        interval <= 0 -> false
+        else -> isSelectorCallDue(mob.server?.ticks ?: mob.age, mob.id, interval * scale)
+    }
+
+    /**
+     * Whether the selector call vanilla makes at [serverTicks] for entity [entityId] is due
+     * under an interval of [intervalTicks] ticks.
+     *
+     * Vanilla only ticks selectors when `serverTicks + entityId` is even, so this counts those
+     * calls rather than ticks. Phasing on `age + id` like [isDue] would pick the odd ticks for
+     * half of all mobs, and their selectors would never run at all.
+     */
+    @JvmStatic
+    fun isSelectorCallDue(serverTicks: Int, entityId: Int, intervalTicks: Int): Boolean {
+        val calls = (intervalTicks / 2).coerceAtLeast(1)
+        return calls == 1 || Math.floorMod(Math.floorDiv(serverTicks + entityId, 2), calls) == 0
+    }
+
+    @JvmStatic
+    fun shouldPathfind(mob: MobEntity): Boolean = LagCutMetrics.throttled(
+        LagCutMetrics.AIPart.PATHFINDING,
+        isDue(mob, tierSettings(getTier(mob))?.pathfindingInterval, AIThrottleController.pathfindingScale)
+    )
+
+    @JvmStatic
+    fun shouldUpdateLook(mob: MobEntity): Boolean = LagCutMetrics.throttled(
+        LagCutMetrics.AIPart.LOOK,
+        isDue(mob, tierSettings(getTier(mob))?.lookInterval, AIThrottleController.intervalScale)
+    )
+
+    private fun tierSettings(tier: AILodTier): AITierSettings? = when (tier) {
+        AILodTier.FULL -> null
+        AILodTier.REDUCED -> config.reducedTier
+        AILodTier.MINIMAL -> config.minimalTier
+        AILodTier.FROZEN -> config.frozenTier
+    }
+
+    // Offsetting by the entity id spreads throttled mobs evenly over the interval
+    private fun isDue(entity: Entity, interval: Int?, scale: Int): Boolean = when {
+        interval == null -> true
+        interval <= 0 -> false
+        interval * scale == 1 -> true
+        else -> Math.floorMod(entity.age + entity.id, interval * scale) == 0
     }
 }
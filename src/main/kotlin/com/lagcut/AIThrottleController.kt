@@ -0,0 +1,98 @@
+package com.lagcut
+
+import com.blanketutils.utils.logDebug
+import com.lagcut.api.TPSTracker
+import com.lagcut.utils.LagCutConfig
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+import net.minecraft.server.MinecraftServer
+
+/**
+ * Closed-loop controller that holds the server near `aiThrottling.targetMspt`.
+ *
+ * Once per second it samples the mean tick time from [TPSTracker]. The intensity goes up
+ * one level after consecutive samples above the target and comes back down only after
+ * consecutive samples below `targetMspt - msptHysteresis`, so it does not oscillate
+ * around the target. Each level shrinks the tier radii by one chunk and stretches the
+ * reduced and minimal tier intervals, with pathfinding stretched the most.
+ */
+object AIThrottleController {
+    private const val SAMPLE_INTERVAL_TICKS = 20
+    private const val RAISE_AFTER_SAMPLES = 2
+    private const val LOWER_AFTER_SAMPLES = 5
+
+    private val config get() = LagCutConfig.config.aiThrottling
+
+    var intensity = 0
+        private set
+
+    private var ticks = 0
+    private var samplesAbove = 0
+    private var samplesBelow = 0
+
+    fun initialize() {
+        ServerTickEvents.END_SERVER_TICK.register { server -> onServerTick(server) }
+    }
+
+    fun reset() {
+        intensity = 0
+        samplesAbove = 0
+        samplesBelow = 0
+    }
+
+    /** Chunks taken off every tier radius at the current intensity. */
+    val radiusReduction: Int
+        get() = intensity
+
+    /** Multiplier for movement, goal and look intervals of the reduced and minimal tiers. */
+    val intervalScale: Int
+        get() = 1 + intensity
+
+    /** Multiplier for pathfinding intervals of the reduced and minimal tiers. */
+    val pathfindingScale: Int
+        get() = 1 + 2 * intensity
+
+    private fun onServerTick(server: MinecraftServer) {
+        if (++ticks < SAMPLE_INTERVAL_TICKS) return
+        ticks = 0
+
+        TPSTracker.collectServerTPS(server)
+
+        val settings = config
+        if (!settings.enabled || !settings.adaptiveThrottling) {
+            if (intensity != 0) reset()
+            return
+        }
+
+        val mspt = TPSTracker.getMeanTickTime()
+        when {
+            mspt > settings.targetMspt -> {
+                samplesBelow = 0
+                if (++samplesAbove >= RAISE_AFTER_SAMPLES && intensity < settings.maxThrottleIntensity) {
+                    samplesAbove = 0
+                    intensity++
+                    logDebug("[DEBUG] MSPT %.2f above target %.2f, AI throttle intensity raised to $intensity".format(mspt, settings.targetMspt), "lagcut")
+                }
+            }
+            mspt < settings.targetMspt - settings.msptHysteresis -> {
+                samplesAbove = 0
+                if (++samplesBelow >= LOWER_AFTER_SAMPLES && intensity > 0) {
+                    samplesBelow = 0
+                    intensity--
+                    logDebug("[DEBUG] MSPT %.2f has headroom, AI throttle intensity lowered to $intensity".format(mspt), "lagcut")
+                }
+            }
+            else -> {
+                // Inside the hysteresis band: hold the current level
+                samplesAbove = 0
+                samplesBelow = 0
+            }
+        }
+
+        if (intensity > settings.maxThrottleIntensity) intensity = settings.maxThrottleIntensity
+    }
+
+    fun getStatusString(): String =
+        "Intensity: $intensity/${config.maxThrottleIntensity} | Target MSPT: %.1f | MSPT: %.2f".format(
+            config.targetMspt, TPSTracker.getMeanTickTime()
+        )
+}
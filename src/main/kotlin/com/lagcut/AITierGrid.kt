@@ -0,0 +1,44 @@
+package com.lagcut
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap
+import net.minecraft.util.math.ChunkPos
+import kotlin.math.abs
+import kotlin.math.max
+
+/**
+ * Fills a chunk key -> tier ordinal map from player chunk positions. Kept apart from
+ * [AIModification] so the grid can be built (and benchmarked) without a world.
+ */
+object AITierGrid {
+
+    /**
+     * Marks every chunk within [outerRadius] (Chebyshev distance) of a player with the best
+     * tier any player grants it: FULL up to [fullRadius], REDUCED up to [reducedRadius],
+     * MINIMAL beyond. [tierMap] must default to the FROZEN ordinal and is not cleared here.
+     */
+    @JvmStatic
+    fun fill(tierMap: Long2ByteOpenHashMap, playerChunks: LongArray, playerCount: Int, fullRadius: Int, reducedRadius: Int, outerRadius: Int) {
+        val full = AIModification.AILodTier.FULL.ordinal.toByte()
+        val reduced = AIModification.AILodTier.REDUCED.ordinal.toByte()
+        val minimal = AIModification.AILodTier.MINIMAL.ordinal.toByte()
+
+        for (i in 0 until playerCount) {
+            val centerX = ChunkPos.getPackedX(playerChunks[i])
+            val centerZ = ChunkPos.getPackedZ(playerChunks[i])
+            for (dx in -outerRadius..outerRadius) {
+                for (dz in -outerRadius..outerRadius) {
+                    val distance = max(abs(dx), abs(dz))
+                    val tier = when {
+                        distance <= fullRadius -> full
+                        distance <= reducedRadius -> reduced
+                        else -> minimal
+                    }
+
+                    // Keep the best tier any player grants this chunk
+                    val key = ChunkPos.toLong(centerX + dx, centerZ + dz)
+                    if (tier < tierMap.get(key)) tierMap.put(key, tier)
+                }
+            }
+        }
+    }
+}
@@ -1,54 +1,26 @@
 package com.lagcut
 
 import com.blanketutils.colors.KyoriHelper
+import com.lagcut.api.StackDataProvider
+import com.lagcut.integration.CobblemonIntegration
 import com.lagcut.utils.LagCutConfig
 import com.blanketutils.utils.logDebug
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents
+import it.unimi.dsi.fastutil.objects.ObjectArrayList
+import net.minecraft.entity.Entity
 import net.minecraft.entity.ItemEntity
 import net.minecraft.entity.mob.MobEntity
-import net.minecraft.entity.decoration.ArmorStandEntity
 import net.minecraft.registry.Registries
 import net.minecraft.server.MinecraftServer
 import net.minecraft.server.world.ServerWorld
 import net.minecraft.sound.SoundCategory
 import net.minecraft.util.Identifier
+import net.minecraft.util.math.Box
+import net.minecraft.util.math.ChunkPos
 import org.slf4j.LoggerFactory
-import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 
-private object ReflectionCache {
-    val pokemonEntityClass = try {
-        Class.forName("com.cobblemon.mod.common.entity.pokemon.PokemonEntity")
-    } catch (e: ClassNotFoundException) { null }
-
-    val pokemonClass = try {
-        Class.forName("com.cobblemon.mod.common.pokemon.Pokemon")
-    } catch (e: ClassNotFoundException) { null }
-
-    val speciesClass = try {
-        Class.forName("com.cobblemon.mod.common.pokemon.PokemonSpecies")
-    } catch (e: ClassNotFoundException) { null }
-
-    val formDataClass = try {
-        Class.forName("com.cobblemon.mod.common.pokemon.FormData")
-    } catch (e: ClassNotFoundException) { null }
-
-    val methods = mapOf(
-        "getPokemon" to pokemonEntityClass?.getMethod("getPokemon"),
-        "getSpecies" to pokemonClass?.getMethod("getSpecies"),
-        "getSpeciesName" to speciesClass?.getDeclaredMethod("getName"),
-        "getForm" to pokemonClass?.getMethod("getForm"),
-        "getAspects" to formDataClass?.getMethod("getAspects"),
-        "getFormName" to formDataClass?.getMethod("getName"),
-        "isShiny" to pokemonClass?.getMethod("getShiny"),
-        "getOwner" to pokemonClass?.getMethod("getOwnerPlayer"),
-        "isBattling" to pokemonEntityClass?.getMethod("isBattling"),
-        "getDisplayName" to pokemonClass?.getDeclaredMethod("getDisplayName")
-    )
-    val hasLabelsMethod = pokemonClass?.getMethod("hasLabels", Array<String>::class.java)
-}
-
 object ClearLag {
     private val logger = LoggerFactory.getLogger("ClearLagHandler")
     private var initialized = false
@@ -56,12 +28,9 @@ object ClearLag {
     private var nextClearTime = 0L
     private var lastBroadcastSecond = -1
     private var lastBroadcastSoundSecond = -1
-    private val blocklist = ConcurrentHashMap.newKeySet<String>()
     private val config get() = LagCutConfig.config.clearLag
-    private val nameCache = ConcurrentHashMap<Any, String>(100)
 
     val scheduler = Executors.newSingleThreadScheduledExecutor()
-    private const val CHUNK_SIZE = 50
     // Delay between processing worlds in the heavy clear task (in milliseconds)
     private const val CHUNK_DELAY_MS = 100L
 
@@ -70,7 +39,6 @@ object ClearLag {
             logDebug("[DEBUG] ClearLag disabled", "lagcut")
             return
         }
-        updateBlocklist()
         ServerLifecycleEvents.SERVER_STARTED.register { server: MinecraftServer ->
             scheduler.scheduleAtFixedRate({
                 server.executeSync {
@@ -83,9 +51,7 @@ object ClearLag {
     }
 
     fun reinitialize() {
-        updateBlocklist()
         if (!initialized) initialize()
-        nameCache.clear()
         logDebug("[DEBUG] ClearLag reinitialized", "lagcut")
     }
 
@@ -101,6 +67,11 @@ object ClearLag {
      * and if the current time has reached or passed nextClearTime, we clear entities and update nextClearTime.
      */
     private fun handleClearLag(server: MinecraftServer) {
+        if (config.densityMode) {
+            handleDensityClear(server)
+            return
+        }
+
         val now = System.currentTimeMillis()
         val intervalMs = (config.cleanupIntervalTicks * 50L).coerceAtLeast(1000L)
 
@@ -167,10 +138,7 @@ object ClearLag {
      * so that the heavy processing is spread over time rather than in a single tick.
      */
     private fun clearEntitiesInChunks(server: MinecraftServer) {
-        val worldsToClear = server.worlds.filter { world ->
-            val dimensionId = world.registryKey.value.toString()
-            !config.excludedDimensions.any { it.equals(dimensionId, ignoreCase = true) }
-        }
+        val worldsToClear = server.worlds.filter { world -> !ExclusionRules.isClearExcludedIn(world) }
 
         var totalEntitiesCleared = 0
         var worldsProcessed = 0
@@ -179,16 +147,16 @@ object ClearLag {
             // Schedule each world's clear operation with a delay
             scheduler.schedule({
                 server.executeSync {
-                    val pokemonCleared = if (Lagcut.isCobblemonPresent && config.clearCobblemonEntities)
-                        clearPokemonEntities(world) else 0
-                    val mobsCleared = if (config.clearMojangEntities) clearMobEntities(world) else 0
-                    val itemsCleared = if (config.clearItemEntities) clearItemEntities(world) else 0
-
-                    val worldTotal = pokemonCleared + mobsCleared + itemsCleared
-                    totalEntitiesCleared += worldTotal
+                    val result = sweep(
+                        world,
+                        clearPokemon = config.clearCobblemonEntities,
+                        clearMobs = config.clearMojangEntities,
+                        clearItems = config.clearItemEntities
+                    )
+                    totalEntitiesCleared += result.total
                     worldsProcessed++
 
-                    logDebug("[DEBUG] Cleared in ${world.registryKey.value}: Pokemon: $pokemonCleared, Mobs: $mobsCleared, Items: $itemsCleared", "lagcut")
+                    logDebug("[DEBUG] Cleared in ${world.registryKey.value}: Pokemon: ${result.pokemon}, Mobs: ${result.mobs}, Items: ${result.items}", "lagcut")
 
                     // If this was the last world, broadcast the final message
                     if (worldsProcessed == worldsToClear.size) {
@@ -201,11 +169,6 @@ object ClearLag {
         }
     }
 
-    private fun updateBlocklist() {
-        blocklist.clear()
-        blocklist.addAll(config.excludedEntities)
-    }
-
     private fun broadcast(server: MinecraftServer, message: String) {
         val formatted = KyoriHelper.parseToMinecraft(message)
         server.playerManager.playerList.forEach { player ->
@@ -214,213 +177,200 @@ object ClearLag {
     }
 
     fun clearAll(server: MinecraftServer) = server.worlds.sumOf { world ->
-        (if (Lagcut.isCobblemonPresent) clearPokemonEntities(world, true) else 0) +
-                clearMobEntities(world) + clearItemEntities(world)
+        sweep(world, clearPokemon = true, clearMobs = true, clearItems = true, bypassPokemonChecks = true).total
     }
 
-    fun clearMobs(server: MinecraftServer) = server.worlds.sumOf { clearMobEntities(it) }
-    fun clearItems(server: MinecraftServer) = server.worlds.sumOf { clearItemEntities(it) }
+    fun clearMobs(server: MinecraftServer) = server.worlds.sumOf { sweep(it, clearMobs = true).total }
+    fun clearItems(server: MinecraftServer) = server.worlds.sumOf { sweep(it, clearItems = true).total }
     fun clearCobblemonMobs(server: MinecraftServer) =
-        if (!Lagcut.isCobblemonPresent) 0 else server.worlds.sumOf { clearPokemonEntities(it) }
-
-    // --- Updated method: process Pokémon entities in chunks ---
-    private fun clearPokemonEntities(world: ServerWorld, bypassChecks: Boolean = false): Int {
-        if (ReflectionCache.pokemonEntityClass == null || ReflectionCache.methods["getPokemon"] == null) return 0
-        var count = 0
-
-        // Convert entities to a list and filter for Pokémon entities
-        val pokemonEntities = world.iterateEntities().toList().filter { ReflectionCache.pokemonEntityClass.isInstance(it) }
-        pokemonEntities.chunked(CHUNK_SIZE).forEach { chunk ->
-            chunk.forEach { entity ->
-                try {
-                    if (entity.isRemoved) return@forEach
-                    if (shouldExcludeEntity(entity)) return@forEach
-                    if (bypassChecks) {
-                        entity.discard()
-                        count++
-                        return@forEach
-                    }
+        if (!Lagcut.isCobblemonPresent) 0 else server.worlds.sumOf { sweep(it, clearPokemon = true).total }
 
-                    val pokemonInstance = ReflectionCache.methods["getPokemon"]!!.invoke(entity)
-                    val pokemonName = getPokemonName(pokemonInstance)
-                    if (shouldPreservePokemon(entity, pokemonInstance, pokemonName)) return@forEach
+    private enum class Category(val indexed: DensityIndex.Category) {
+        POKEMON(DensityIndex.Category.POKEMON),
+        MOB(DensityIndex.Category.MOB),
+        ITEM(DensityIndex.Category.ITEM)
+    }
 
-                    entity.discard()
-                    count++
-                } catch (e: Exception) {
-                    logDebug("[DEBUG] Error processing Pokemon: ${e.message}", "lagcut")
-                }
-            }
-        }
-        return count
+    class SweepResult {
+        var pokemon = 0
+        var mobs = 0
+        var items = 0
+
+        val total: Int
+            get() = pokemon + mobs + items
     }
 
-    // Snapshot entities first to avoid processing newly spawned entities during clearing
-    private fun clearMobEntities(world: ServerWorld): Int {
-        var count = 0
-        val entities = world.iterateEntities().toList()
-        entities.forEach { entity ->
+    /**
+     * Walks the world's entities once: each entity is classified, run through the rule
+     * chain for its category and collected for removal. Removal happens after the walk,
+     * so entities spawned or removed while sweeping are never seen half way.
+     */
+    private fun sweep(
+        world: ServerWorld,
+        clearPokemon: Boolean = false,
+        clearMobs: Boolean = false,
+        clearItems: Boolean = false,
+        bypassPokemonChecks: Boolean = false
+    ): SweepResult {
+        val started = LagCutProfiler.begin()
+        val result = SweepResult()
+        val removals = ObjectArrayList<Entity>()
+        val pokemonEnabled = clearPokemon && Lagcut.isCobblemonPresent
+
+        for (entity in world.iterateEntities()) {
             try {
-                if (entity is MobEntity || entity is ArmorStandEntity) {
-                    try {
-                        if (entity.isRemoved) return@forEach
-                        if (shouldExcludeEntity(entity)) return@forEach
-                        if (config.preservePersistentEntities && entity is MobEntity && entity.isPersistent) return@forEach
-
-                        entity.discard()
-                        count++
-                    } catch (e: Exception) {
-                        logDebug("[DEBUG] Error processing Mob: ${e.message}", "lagcut")
-                    }
+                if (entity.isRemoved) continue
+                val category = classify(entity) ?: continue
+                when (category) {
+                    Category.POKEMON -> if (!pokemonEnabled) continue
+                    Category.MOB -> if (!clearMobs) continue
+                    Category.ITEM -> if (!clearItems) continue
                 }
+
+                if (!isRemovable(entity, category, bypassPokemonChecks)) continue
+                when (category) {
+                    Category.POKEMON -> result.pokemon++
+                    Category.MOB -> result.mobs++
+                    Category.ITEM -> result.items++
+                }
+                removals.add(entity)
             } catch (e: Exception) {
-                logDebug("[DEBUG] Error handling entity in clearMobEntities: ${e.message}", "lagcut")
+                logDebug("[DEBUG] Error classifying ${entity.type} for clearing: ${e.message}", "lagcut")
             }
         }
-        return count
+
+        for (i in 0 until removals.size) {
+            removals[i].discard()
+        }
+        LagCutProfiler.end(LagCutProfiler.Section.CLEAR_SWEEPS, started)
+        LagCutMetrics.recordClear(result)
+        return result
     }
 
-    // Snapshot entities first to avoid processing newly spawned entities during clearing
-    private fun clearItemEntities(world: ServerWorld): Int {
-        var count = 0
-        val entities = world.iterateEntities().toList()
-        entities.forEach { entity ->
-            try {
-                if (entity is ItemEntity) {
-                    try {
-                        if (entity.isRemoved) return@forEach
-                        if (shouldExcludeEntity(entity)) return@forEach
-
-                        entity.discard()
-                        count++
-                    } catch (e: Exception) {
-                        logDebug("[DEBUG] Error processing ItemEntity: ${e.message}", "lagcut")
-                    }
-                }
-            } catch (e: Exception) {
-                logDebug("[DEBUG] Error handling entity in clearItemEntities: ${e.message}", "lagcut")
-            }
+    // The rule chain shared by every sweep: exclusions first, then the category's own checks
+    private fun isRemovable(entity: Entity, category: Category, bypassPokemonChecks: Boolean): Boolean {
+        if (shouldExcludeEntity(entity)) return false
+        return when (category) {
+            // NBT patterns were already applied to the whole entity (Pokemon data included) by shouldExcludeEntity
+            Category.POKEMON -> bypassPokemonChecks || !CobblemonIntegration.shouldPreserveFromClear(entity, config.excludedLabels)
+            Category.MOB -> !(config.preservePersistentEntities && entity is MobEntity && entity.isPersistent)
+            Category.ITEM -> true
         }
-        return count
+    }
+
+    // Pokémon are their own category, so clearMojangEntities never removes them
+    private fun classify(entity: Entity): Category? = when (DensityIndex.categoryOf(entity)) {
+        DensityIndex.Category.POKEMON -> Category.POKEMON
+        DensityIndex.Category.MOB -> Category.MOB
+        DensityIndex.Category.ITEM -> Category.ITEM
+        DensityIndex.Category.OTHER -> null
     }
 
     /**
-     * Applies exclusions for every entity by checking:
-     * - Excluded entity types and blocklist.
-     * - NBT exclusion patterns.
+     * Density mode: runs every densityCheckIntervalTicks and only touches chunks that hold more
+     * entities of a category than allowed.
      */
-    private fun shouldExcludeEntity(entity: net.minecraft.entity.Entity): Boolean {
-        val entityType = entity.type.toString()
-        if (config.excludedEntityTypes.any { it.equals(entityType, ignoreCase = true) }) {
-            logDebug("[DEBUG] Entity type $entityType is in excludedEntityTypes", "lagcut")
-            return true
-        }
-        if (isEntityInBlocklist(entityType)) return true
-
-        // Check NBT patterns for every entity
-        if (config.nbtExclusionPatterns.isNotEmpty()) {
-            val nbt = net.minecraft.nbt.NbtCompound()
-            entity.writeNbt(nbt)
-            val nbtString = nbt.toString()
-            if (config.nbtExclusionPatterns.any { pattern -> nbtString.contains(pattern) }) {
-                logDebug("[DEBUG] Entity $entityType matches NBT exclusion pattern in NBT: $nbtString", "lagcut")
-                return true
+    private fun handleDensityClear(server: MinecraftServer) {
+        val now = System.currentTimeMillis()
+        val intervalMs = (config.densityCheckIntervalTicks * 50L).coerceAtLeast(1000L)
+        if (nextClearTime == 0L) nextClearTime = now + intervalMs
+        if (now < nextClearTime) return
+        nextClearTime = now + intervalMs
+
+        server.worlds.forEach { world ->
+            if (ExclusionRules.isClearExcludedIn(world)) return@forEach
+            val result = densitySweep(world)
+            if (result.total > 0) {
+                logDebug("[DEBUG] Density clear in ${world.registryKey.value}: Pokemon: ${result.pokemon}, Mobs: ${result.mobs}, Items: ${result.items}", "lagcut")
             }
         }
-        return false
     }
 
-    // Modified version for direct pattern matching
-    private fun shouldPreservePokemon(pokemon: Any, pokemonInstance: Any, pokemonName: String): Boolean {
-        if (isEntityInBlocklist(pokemonName, true)) {
-            logDebug("[DEBUG] Pokemon $pokemonName is in blocklist", "lagcut")
-            return true
-        }
-        try {
-            ReflectionCache.hasLabelsMethod?.let { method ->
-                val matchingLabels = config.excludedLabels.filter { label ->
-                    method.invoke(pokemonInstance, arrayOf(label)) as? Boolean == true
-                }
-                if (matchingLabels.isNotEmpty()) {
-                    logDebug("[DEBUG] Preserving Pokemon due to labels: $matchingLabels", "lagcut")
-                    return true
-                }
+    // Lowest value first, then oldest first
+    private val removalOrder = compareBy<Entity>({ entityValue(it) }, { -it.age })
+
+    private fun densitySweep(world: ServerWorld): SweepResult {
+        val started = LagCutProfiler.begin()
+        val result = SweepResult()
+        for (category in Category.entries) {
+            val limit = when (category) {
+                Category.POKEMON -> if (config.clearCobblemonEntities && Lagcut.isCobblemonPresent) config.maxPokemonPerChunk else -1
+                Category.MOB -> if (config.clearMojangEntities) config.maxMobsPerChunk else -1
+                Category.ITEM -> if (config.clearItemEntities) config.maxItemsPerChunk else -1
             }
-
-            val nbt = net.minecraft.nbt.NbtCompound()
-            (pokemon as? net.minecraft.entity.Entity)?.writeNbt(nbt)
-            val pokemonNbt = nbt.getCompound("Pokemon")
-            if (pokemonNbt != null) {
-                val nbtString = pokemonNbt.toString()
-                val matchingNbtPatterns = config.nbtExclusionPatterns.filter { pattern ->
-                    try {
-                        nbtString.contains(pattern)
-                    } catch (e: Exception) {
-                        logDebug("[DEBUG] Error matching NBT pattern $pattern: ${e.message}", "lagcut")
-                        false
+            if (limit < 0) continue
+
+            // The density index names the over-full chunks, so only those are ever walked
+            for (chunk in DensityIndex.chunksOver(world, category.indexed, limit)) {
+                val excess = chunk.count(category.indexed) - limit
+                val candidates = collectCandidates(world, chunk.chunkKey, category)
+                if (candidates.isEmpty()) continue
+
+                candidates.sortWith(removalOrder)
+                for (i in 0 until minOf(excess, candidates.size)) {
+                    candidates[i].discard()
+                    when (category) {
+                        Category.POKEMON -> result.pokemon++
+                        Category.MOB -> result.mobs++
+                        Category.ITEM -> result.items++
                     }
                 }
-                if (matchingNbtPatterns.isNotEmpty()) {
-                    logDebug("[DEBUG] Preserving Pokemon due to NBT patterns: $matchingNbtPatterns", "lagcut")
-                    return true
-                }
             }
-
-            if (ReflectionCache.methods["isBattling"]?.invoke(pokemon) as? Boolean == true) {
-                logDebug("[DEBUG] Preserving battling Pokemon", "lagcut")
-                return true
-            }
-            return false
-        } catch (e: Exception) {
-            logDebug("[DEBUG] Error checking Pokemon preservation status: ${e.message}", "lagcut")
-            return false
         }
+        LagCutProfiler.end(LagCutProfiler.Section.CLEAR_SWEEPS, started)
+        LagCutMetrics.recordClear(result)
+        return result
     }
 
-    private fun getPokemonName(pokemonInstance: Any?): String {
-        if (pokemonInstance == null) return "Unknown Pokemon"
-        return nameCache.getOrPut(pokemonInstance) {
+    private fun collectCandidates(world: ServerWorld, chunkKey: Long, category: Category): MutableList<Entity> {
+        val startX = ChunkPos.getPackedX(chunkKey) shl 4
+        val startZ = ChunkPos.getPackedZ(chunkKey) shl 4
+        val box = Box(
+            startX.toDouble(), world.bottomY.toDouble(), startZ.toDouble(),
+            startX + 16.0, world.topY.toDouble(), startZ + 16.0
+        )
+        return world.getOtherEntities(null, box) { entity ->
             try {
-                val species = ReflectionCache.methods["getSpecies"]?.invoke(pokemonInstance)
-                val speciesName = ReflectionCache.methods["getSpeciesName"]?.invoke(species)?.toString()
-                if (!speciesName.isNullOrEmpty()) {
-                    val regex = """cobblemon\.species\.(.+?)\.name""".toRegex()
-                    val match = regex.find(speciesName)
-                    if (match != null) {
-                        return@getOrPut match.groupValues[1]
-                    }
-                    return@getOrPut speciesName
-                }
-                val displayName = ReflectionCache.methods["getDisplayName"]?.invoke(pokemonInstance)?.toString()
-                if (!displayName.isNullOrEmpty()) {
-                    return@getOrPut displayName
-                }
-                pokemonInstance.javaClass.simpleName
+                // The box also touches entities that overhang from neighbouring chunks
+                !entity.isRemoved && entity.chunkPos.toLong() == chunkKey &&
+                        classify(entity) == category && isRemovable(entity, category, bypassPokemonChecks = false)
             } catch (e: Exception) {
-                logDebug("[DEBUG] Error getting Pokemon name: ${e.message}", "lagcut")
-                "Unknown Pokemon"
+                logDebug("[DEBUG] Error classifying ${entity.type} for density clearing: ${e.message}", "lagcut")
+                false
             }
         }
     }
 
-    private fun isEntityInBlocklist(entityType: String, isPokemon: Boolean = false): Boolean {
-        val normalizedType = entityType.lowercase().let { type ->
-            if (isPokemon) {
-                val regex = """cobblemon\.species\.(.+?)\.name""".toRegex()
-                regex.find(type)?.groupValues?.get(1) ?: type
-            } else {
-                type.removePrefix("entity.minecraft.").removePrefix("entity.cobblemon.")
-            }
-        }
-        return blocklist.any { exclusion ->
-            when {
-                exclusion.startsWith("cobblemon:") -> normalizedType == exclusion.removePrefix("cobblemon:").lowercase()
-                exclusion.startsWith("pokemon:") -> normalizedType == exclusion.removePrefix("pokemon:").lowercase()
-                exclusion.startsWith("minecraft:") -> normalizedType == exclusion.removePrefix("minecraft:").lowercase()
-                else -> normalizedType == exclusion.lowercase()
+    /**
+     * Rough worth of an entity to players: named, stacked, rare or enchanted things are kept
+     * longest when a chunk has to be thinned out.
+     */
+    private fun entityValue(entity: Entity): Int {
+        var value = 0
+        if (entity.hasCustomName() && !(entity is StackDataProvider && entity.isStackedCompat())) value += 1000
+        when (entity) {
+            is ItemEntity -> {
+                val stack = entity.stack
+                value += stack.count * (stack.rarity.ordinal + 1)
+                if (stack.hasEnchantments()) value += 200
             }
+            is StackDataProvider -> value += entity.getStackSizeCompat() * 10
         }
+        return value
     }
+
+    /**
+     * Applies exclusions for every entity by checking:
+     * - Excluded entity types and blocklist.
+     * - NBT exclusion predicates (structured or legacy substring).
+     */
+    private fun shouldExcludeEntity(entity: Entity): Boolean {
+        // Excluded entity types and the blocklist are precompiled per EntityType
+        if (ExclusionRules.isClearExcluded(entity.type)) return true
+        // Structured predicates read only the referenced data; legacy substrings fall back to NBT
+        return ExclusionRules.clearNbt.matches(entity)
+    }
+
     fun forceClear(server: MinecraftServer) {
         scheduler.execute {
             clearEntitiesInChunks(server)
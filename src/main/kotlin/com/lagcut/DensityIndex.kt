@@ -0,0 +1,141 @@
+package com.lagcut
+
+import com.lagcut.integration.CobblemonIntegration
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents
+import net.minecraft.entity.Entity
+import net.minecraft.entity.EntityType
+import net.minecraft.entity.ItemEntity
+import net.minecraft.entity.decoration.ArmorStandEntity
+import net.minecraft.entity.mob.MobEntity
+import net.minecraft.server.network.ServerPlayerEntity
+import net.minecraft.server.world.ServerWorld
+import net.minecraft.util.math.ChunkPos
+
+/**
+ * Per-world entity counts per chunk, by category and by type.
+ *
+ * The index is kept up to date from entity load/unload events and from the entity manager's
+ * section moves (see `EntityListenerMixin`), so reading it never scans a world.
+ * Players are not counted.
+ */
+object DensityIndex {
+
+    enum class Category { POKEMON, MOB, ITEM, OTHER }
+
+    class ChunkDensity(val chunkKey: Long) {
+        var total = 0
+            private set
+        private val byCategory = IntArray(Category.entries.size)
+        val byType = Reference2IntOpenHashMap<EntityType<*>>()
+
+        fun count(category: Category): Int = byCategory[category.ordinal]
+
+        internal fun add(entity: Entity, category: Category, delta: Int) {
+            total += delta
+            byCategory[category.ordinal] += delta
+            val typeCount = byType.getInt(entity.type) + delta
+            if (typeCount <= 0) byType.removeInt(entity.type) else byType.put(entity.type, typeCount)
+        }
+    }
+
+    private class WorldDensity {
+        val chunks = Long2ObjectOpenHashMap<ChunkDensity>()
+        val totals = IntArray(Category.entries.size)
+        // Entity id -> chunk it is counted in
+        val tracked = Int2LongOpenHashMap().apply { defaultReturnValue(Long.MIN_VALUE) }
+    }
+
+    private val worlds = Reference2ObjectOpenHashMap<ServerWorld, WorldDensity>()
+
+    fun initialize() {
+        ServerEntityEvents.ENTITY_LOAD.register { entity, world -> onLoad(entity, world) }
+        ServerEntityEvents.ENTITY_UNLOAD.register { entity, world -> onUnload(entity, world) }
+    }
+
+    fun shutdown() {
+        worlds.clear()
+    }
+
+    fun categoryOf(entity: Entity): Category = when {
+        Lagcut.isCobblemonPresent && CobblemonIntegration.isPokemon(entity) -> Category.POKEMON
+        entity is MobEntity || entity is ArmorStandEntity -> Category.MOB
+        entity is ItemEntity -> Category.ITEM
+        else -> Category.OTHER
+    }
+
+    /** Called by the entity manager listener whenever an entity changed section. */
+    @JvmStatic
+    fun onSectionChanged(entity: Entity) {
+        val world = entity.world as? ServerWorld ?: return
+        val density = worlds.get(world) ?: return
+        val previous = density.tracked.get(entity.id)
+        if (previous == Long.MIN_VALUE) return
+
+        val current = entity.chunkPos.toLong()
+        if (previous == current) return
+        val category = categoryOf(entity)
+        adjust(density, previous, entity, category, -1)
+        adjust(density, current, entity, category, 1)
+        density.tracked.put(entity.id, current)
+    }
+
+    /** Entities of [category] in all loaded chunks of [world]. */
+    fun count(world: ServerWorld, category: Category): Int =
+        worlds.get(world)?.totals?.get(category.ordinal) ?: 0
+
+    fun getChunk(world: ServerWorld, chunkPos: ChunkPos): ChunkDensity? =
+        worlds.get(world)?.chunks?.get(chunkPos.toLong())
+
+    /** All chunks of [world] holding more than [limit] entities of [category]. */
+    fun chunksOver(world: ServerWorld, category: Category, limit: Int): List<ChunkDensity> {
+        val density = worlds.get(world) ?: return emptyList()
+        return density.chunks.values.filter { it.count(category) > limit }
+    }
+
+    /** The [limit] chunks of [world] with the most entities, most crowded first. */
+    fun hottest(world: ServerWorld, limit: Int): List<ChunkDensity> {
+        val density = worlds.get(world) ?: return emptyList()
+        return density.chunks.values.sortedByDescending { it.total }.take(limit)
+    }
+
+    private fun onLoad(entity: Entity, world: ServerWorld) {
+        if (entity is ServerPlayerEntity) return
+        var density = worlds.get(world)
+        if (density == null) {
+            density = WorldDensity()
+            worlds.put(world, density)
+        }
+
+        // A repeated load is treated as a move so nothing is counted twice
+        val category = categoryOf(entity)
+        val previous = density.tracked.get(entity.id)
+        if (previous != Long.MIN_VALUE) adjust(density, previous, entity, category, -1)
+
+        val current = entity.chunkPos.toLong()
+        adjust(density, current, entity, category, 1)
+        density.tracked.put(entity.id, current)
+    }
+
+    private fun onUnload(entity: Entity, world: ServerWorld) {
+        val density = worlds.get(world) ?: return
+        val previous = density.tracked.remove(entity.id)
+        if (previous == Long.MIN_VALUE) return
+        adjust(density, previous, entity, categoryOf(entity), -1)
+    }
+
+    private fun adjust(density: WorldDensity, chunkKey: Long, entity: Entity, category: Category, delta: Int) {
+        var chunk = density.chunks.get(chunkKey)
+        if (chunk == null) {
+            if (delta < 0) return
+            chunk = ChunkDensity(chunkKey)
+            density.chunks.put(chunkKey, chunk)
+        }
+        chunk.add(entity, category, delta)
+        density.totals[category.ordinal] += delta
+        if (chunk.total <= 0) density.chunks.remove(chunkKey)
+    }
+}
@@ -0,0 +1,116 @@
+package com.lagcut
+
+/**
+ * The normalized exclusion lists of one config, and the verdicts derived from them.
+ *
+ * Everything here works on plain ids and translation keys, so [ExclusionRules] only has to
+ * turn registry entries into strings; the rules themselves can be exercised without a game.
+ */
+class ExclusionLists(
+    val stackExcludedTypes: Set<String>,
+    val stackExcludedIds: Set<String>,
+    val stackExcludedDimensions: Set<String>,
+    val itemExcludedIds: Set<String>,
+    val itemExcludedDimensions: Set<String>,
+    val clearExcludedTypes: Set<String>,
+    val clearBlocklist: Set<String>,
+    val clearExcludedDimensions: Set<String>
+) {
+    /**
+     * Entity type verdict from its registry id (`namespace:path`) and translation key
+     * (`entity.namespace.path`).
+     */
+    fun entityFlags(id: String, translationKey: String, isPlayer: Boolean): Int {
+        val key = translationKey.lowercase()
+        var flags = 0
+
+        // Players and non-vanilla entities never stack
+        if (isPlayer ||
+            !id.startsWith("minecraft:") ||
+            key in stackExcludedTypes ||
+            id in stackExcludedIds) {
+            flags = flags or STACK_EXCLUDED
+        }
+
+        val blocklistName = key
+            .removePrefix("entity.minecraft.")
+            .removePrefix("entity.cobblemon.")
+        if (key in clearExcludedTypes || blocklistName in clearBlocklist) {
+            flags = flags or CLEAR_EXCLUDED
+        }
+
+        return flags
+    }
+
+    fun itemFlags(id: String): Int =
+        if (id in itemExcludedIds) ITEM_EXCLUDED else 0
+
+    fun worldFlags(dimensionId: String): Int {
+        val id = dimensionId.lowercase()
+        var flags = 0
+        if (id in stackExcludedDimensions) flags = flags or WORLD_STACK_EXCLUDED
+        if (id in itemExcludedDimensions) flags = flags or WORLD_ITEM_EXCLUDED
+        if (id in clearExcludedDimensions) flags = flags or WORLD_CLEAR_EXCLUDED
+        return flags
+    }
+
+    /**
+     * Checks a Pokémon species name (either a plain name or a `cobblemon.species.<name>.name`
+     * translation key) against the ClearLag blocklist.
+     */
+    fun isPokemonBlocklisted(speciesName: String): Boolean {
+        val lowered = speciesName.lowercase()
+        val normalized = if (lowered.contains("cobblemon.species.")) {
+            speciesKeyRegex.find(lowered)?.groupValues?.get(1) ?: lowered
+        } else {
+            lowered
+        }
+        return normalized in clearBlocklist
+    }
+
+    companion object {
+        // Entity type verdict flags
+        const val STACK_EXCLUDED = 1
+        const val CLEAR_EXCLUDED = 2
+
+        // Item verdict flags
+        const val ITEM_EXCLUDED = 1
+
+        // World verdict flags
+        const val WORLD_STACK_EXCLUDED = 1
+        const val WORLD_ITEM_EXCLUDED = 2
+        const val WORLD_CLEAR_EXCLUDED = 4
+
+        private val speciesKeyRegex = """cobblemon\.species\.(.+?)\.name""".toRegex()
+
+        /** Normalizes the raw config lists. */
+        @JvmStatic
+        fun compile(
+            stackExcludedTypes: List<String>,
+            stackExcludedIds: List<String>,
+            stackExcludedDimensions: List<String>,
+            itemExcludedIds: List<String>,
+            itemExcludedDimensions: List<String>,
+            clearExcludedTypes: List<String>,
+            clearBlocklist: List<String>,
+            clearExcludedDimensions: List<String>
+        ): ExclusionLists = ExclusionLists(
+            stackExcludedTypes = stackExcludedTypes.mapTo(HashSet()) { it.lowercase() },
+            stackExcludedIds = stackExcludedIds.toHashSet(),
+            stackExcludedDimensions = stackExcludedDimensions.mapTo(HashSet()) { it.lowercase() },
+            itemExcludedIds = itemExcludedIds.toHashSet(),
+            itemExcludedDimensions = itemExcludedDimensions.mapTo(HashSet()) { it.lowercase() },
+            clearExcludedTypes = clearExcludedTypes.mapTo(HashSet()) { it.lowercase() },
+            clearBlocklist = clearBlocklist.mapTo(HashSet()) { normalizeBlocklistEntry(it) },
+            clearExcludedDimensions = clearExcludedDimensions.mapTo(HashSet()) { it.lowercase() }
+        )
+
+        // Mirrors the prefix handling ClearLag has always applied to its blocklist entries
+        private fun normalizeBlocklistEntry(entry: String): String = when {
+            entry.startsWith("cobblemon:") -> entry.removePrefix("cobblemon:").lowercase()
+            entry.startsWith("pokemon:") -> entry.removePrefix("pokemon:").lowercase()
+            entry.startsWith("minecraft:") -> entry.removePrefix("minecraft:").lowercase()
+            else -> entry.lowercase()
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lagcut
+
+import com.blanketutils.utils.logDebug
+import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap
+import net.minecraft.entity.EntityType
+import net.minecraft.item.Item
+import net.minecraft.registry.Registries
+import net.minecraft.registry.RegistryKey
+import net.minecraft.server.MinecraftServer
+import net.minecraft.world.World
+
+/**
+ * Compiled exclusion rules shared by entity stacking, item stacking and ClearLag.
+ *
+ * The config lists are turned into per-[EntityType], per-[Item] and per-world verdict
+ * tables once (at SERVER_STARTED and on `/lc reload`), so every hot-path exclusion
+ * check is a single identity map lookup instead of a scan over the config strings.
+ */
+object ExclusionRules {
+    private class Tables(
+        val lists: ExclusionLists,
+        val entityFlags: VerdictTable<EntityType<*>>,
+        val itemFlags: VerdictTable<Item>,
+        val worldFlags: VerdictTable<RegistryKey<World>>,
+        val stackingNbt: NbtExclusionMatcher,
+        val itemNbt: NbtExclusionMatcher,
+        val clearNbt: NbtExclusionMatcher
+    )
+
+    // Tables are immutable once published; a rebuild swaps the whole reference.
+    @Volatile
+    private var tables: Tables = compile(null)
+
+    /**
+     * Recompiles all verdict tables from the current config. Pass the server when it is
+     * available so that every registered world is precomputed as well.
+     */
+    fun rebuild(server: MinecraftServer?) {
+        tables = compile(server)
+        logDebug(
+            "[DEBUG] Exclusion rules compiled: ${tables.entityFlags.size} entity types, " +
+                    "${tables.itemFlags.size} items, ${tables.worldFlags.size} worlds",
+            "lagcut"
+        )
+    }
+
+    fun isStackingExcluded(type: EntityType<*>): Boolean =
+        entityFlags(type) and ExclusionLists.STACK_EXCLUDED != 0
+
+    fun isClearExcluded(type: EntityType<*>): Boolean =
+        entityFlags(type) and ExclusionLists.CLEAR_EXCLUDED != 0
+
+    fun isItemExcluded(item: Item): Boolean =
+        itemFlags(item) and ExclusionLists.ITEM_EXCLUDED != 0
+
+    /** Compiled `entityStacking.nbtExclusionPatterns`. */
+    val stackingNbt: NbtExclusionMatcher
+        get() = tables.stackingNbt
+
+    /** Compiled `itemStacking.nbtExclusionPatterns`. */
+    val itemNbt: NbtExclusionMatcher
+        get() = tables.itemNbt
+
+    /** Compiled `clearLag.nbtExclusionPatterns`. */
+    val clearNbt: NbtExclusionMatcher
+        get() = tables.clearNbt
+
+    fun isStackingExcludedIn(world: World): Boolean =
+        worldFlags(world.registryKey) and ExclusionLists.WORLD_STACK_EXCLUDED != 0
+
+    fun isItemStackingExcludedIn(world: World): Boolean =
+        worldFlags(world.registryKey) and ExclusionLists.WORLD_ITEM_EXCLUDED != 0
+
+    fun isClearExcludedIn(world: World): Boolean =
+        worldFlags(world.registryKey) and ExclusionLists.WORLD_CLEAR_EXCLUDED != 0
+
+    /**
+     * Checks a Pokémon species name (either a plain name or a `cobblemon.species.<name>.name`
+     * translation key) against the ClearLag blocklist.
+     */
+    fun isPokemonBlocklisted(speciesName: String): Boolean =
+        tables.lists.isPokemonBlocklisted(speciesName)
+
+    private fun entityFlags(type: EntityType<*>): Int = tables.entityFlags.flags(type)
+
+    private fun itemFlags(item: Item): Int = tables.itemFlags.flags(item)
+
+    private fun worldFlags(key: RegistryKey<World>): Int = tables.worldFlags.flags(key)
+
+    private fun compile(server: MinecraftServer?): Tables {
+        val config = LagCutConfig.config
+        val lists = ExclusionLists.compile(
+            stackExcludedTypes = config.entityStacking.excludedEntityTypes,
+            stackExcludedIds = config.entityStacking.excludedEntities,
+            stackExcludedDimensions = config.entityStacking.excludedDimensions,
+            itemExcludedIds = config.itemStacking.excludedItems,
+            itemExcludedDimensions = config.itemStacking.excludedDimensions,
+            clearExcludedTypes = config.clearLag.excludedEntityTypes,
+            clearBlocklist = config.clearLag.excludedEntities,
+            clearExcludedDimensions = config.clearLag.excludedDimensions
+        )
+
+        val entityFlags = VerdictTable.entities(lists, EntityTypeNames).precompute(Registries.ENTITY_TYPE)
+        val itemFlags = VerdictTable<Item>(lists) { rules, item -> rules.itemFlags(Registries.ITEM.getId(item).toString()) }
+            .precompute(Registries.ITEM)
+        val worldFlags = VerdictTable<RegistryKey<World>>(lists) { rules, key -> rules.worldFlags(key.value.toString()) }
+            .precompute(server?.worldRegistryKeys ?: emptySet())
+
+        return Tables(
+            lists,
+            entityFlags,
+            itemFlags,
+            worldFlags,
+            NbtExclusionMatcher.compile(config.entityStacking.nbtExclusionPatterns),
+            NbtExclusionMatcher.compile(config.itemStacking.nbtExclusionPatterns),
+            NbtExclusionMatcher.compile(config.clearLag.nbtExclusionPatterns)
+        )
+    }
+
+    private object EntityTypeNames : EntityNames<EntityType<*>> {
+        override fun id(type: EntityType<*>): String = EntityType.getId(type).toString()
+        override fun translationKey(type: EntityType<*>): String = type.toString()
+        override fun isPlayer(type: EntityType<*>): Boolean = type == EntityType.PLAYER
+    }
+}
+
+/** The names of an entity type key that the exclusion lists match against. */
+interface EntityNames<K> {
+    fun id(type: K): String
+    fun translationKey(type: K): String
+    fun isPlayer(type: K): Boolean
+}
+
+/**
+ * Verdict flags per key (compared by identity), precomputed for the keys known when the
+ * rules are compiled. A key that is missing, such as one registered after the last rebuild,
+ * has its verdict computed from the same lists on every lookup.
+ */
+class VerdictTable<K>(private val lists: ExclusionLists, private val verdict: (ExclusionLists, K) -> Int) {
+    private val flags = Reference2IntOpenHashMap<K>().apply { defaultReturnValue(UNKNOWN) }
+
+    val size: Int
+        get() = flags.size
+
+    fun precompute(keys: Iterable<K>): VerdictTable<K> {
+        for (key in keys) flags.put(key, verdict(lists, key))
+        return this
+    }
+
+    fun flags(key: K): Int {
+        val known = flags.getInt(key)
+        return if (known != UNKNOWN) known else verdict(lists, key)
+    }
+
+    companion object {
+        private const val UNKNOWN = -1
+
+        /** An entity type table whose verdicts read each key's names through [names]. */
+        @JvmStatic
+        fun <K> entities(lists: ExclusionLists, names: EntityNames<K>): VerdictTable<K> =
+            VerdictTable(lists) { rules, type -> rules.entityFlags(names.id(type), names.translationKey(type), names.isPlayer(type)) }
+    }
+}
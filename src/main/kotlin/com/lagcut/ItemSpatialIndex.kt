@@ -0,0 +1,92 @@
+package com.lagcut
+
+import com.lagcut.api.ItemIndexHolder
+import com.lagcut.utils.LagCutConfig
+import net.minecraft.entity.ItemEntity
+import net.minecraft.registry.Registries
+import net.minecraft.registry.RegistryKey
+import net.minecraft.world.World
+import kotlin.math.ceil
+
+/**
+ * Per-world spatial hash of item entities.
+ *
+ * Buckets are keyed by (cell, item, component fingerprint), so merge candidates for an item
+ * come straight from the matching bucket of its own and neighbouring cells instead of from a
+ * box query over every entity around it. The cell size is derived from the item detection
+ * radius, which keeps every possible partner within the 3x3x3 cells around the item.
+ */
+object ItemSpatialIndex {
+    // Item entities are 0.25 blocks wide, so partners can be radius + 0.25 apart on an axis
+    private const val ITEM_WIDTH = 0.25
+
+    private val indices = HashMap<RegistryKey<World>, SpatialBuckets<ItemEntity>>()
+
+    // Bumped on reset so that entries written before a reload are treated as not indexed
+    private var epoch = 1
+    private var cellSize = computeCellSize()
+
+    fun reset() {
+        indices.clear()
+        epoch++
+        cellSize = computeCellSize()
+    }
+
+    /**
+     * Called every tick for every item; only touches the index when the item changed cell or
+     * its components (and therefore its fingerprint) changed.
+     */
+    fun onTick(item: ItemEntity) {
+        val holder = item as ItemIndexHolder
+        if (holder.getIndexEpochCompat() != epoch ||
+            holder.getIndexCellCompat() != cellOf(item) ||
+            holder.getIndexFingerprintCompat() != ItemStackingManager.componentFingerprint(item.stack)) {
+            insert(item)
+        }
+    }
+
+    fun insert(item: ItemEntity) {
+        if (item.world.isClient || item.isRemoved || item.stack.isEmpty) return
+        remove(item)
+
+        val cell = cellOf(item)
+        val fingerprint = ItemStackingManager.componentFingerprint(item.stack)
+        val bucket = SpatialBuckets.bucketKey(cell, Registries.ITEM.getRawId(item.stack.item), fingerprint)
+        indices.getOrPut(item.world.registryKey) { SpatialBuckets() }.add(bucket, item)
+        (item as ItemIndexHolder).setIndexEntryCompat(cell, bucket, fingerprint, epoch)
+    }
+
+    fun remove(item: ItemEntity) {
+        val holder = item as ItemIndexHolder
+        if (holder.getIndexEpochCompat() == epoch) {
+            indices[item.world.registryKey]?.remove(holder.getIndexBucketCompat(), item)
+        }
+        holder.setIndexEntryCompat(0L, 0L, 0L, 0)
+    }
+
+    /**
+     * Returns the indexed items that share [item]'s type and fingerprint, lie in one of the
+     * 27 cells around it and pass [filter]. Callers still apply their own exact checks.
+     */
+    fun findCandidates(item: ItemEntity, filter: (ItemEntity) -> Boolean): List<ItemEntity> {
+        onTick(item)
+        val buckets = indices[item.world.registryKey] ?: return emptyList()
+        val holder = item as ItemIndexHolder
+        val itemId = Registries.ITEM.getRawId(item.stack.item)
+
+        var result: MutableList<ItemEntity>? = null
+        buckets.forEachNear(holder.getIndexCellCompat(), itemId, holder.getIndexFingerprintCompat()) { other ->
+            if (other !== item && filter(other)) {
+                if (result == null) result = ArrayList(4)
+                result!!.add(other)
+            }
+        }
+        return result ?: emptyList()
+    }
+
+    private fun cellOf(item: ItemEntity): Long =
+        SpatialBuckets.cellOf(item.x, item.y, item.z, cellSize)
+
+    private fun computeCellSize(): Double =
+        ceil(LagCutConfig.config.itemStacking.detectionRadius + ITEM_WIDTH).coerceAtLeast(1.0)
+}
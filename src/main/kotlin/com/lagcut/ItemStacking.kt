@@ -6,22 +6,39 @@ import com.lagcut.ClearLag.scheduler
 import net.minecraft.entity.ItemEntity
 import net.minecraft.registry.Registries
 import net.minecraft.component.DataComponentTypes
+import com.lagcut.api.ComponentFingerprintHolder
+import com.lagcut.api.ItemDisplayState
 import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.HashCommon
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
 import net.minecraft.component.ComponentType
+import net.minecraft.item.Item
 import net.minecraft.item.ItemStack
-import net.minecraft.nbt.NbtCompound
+import net.minecraft.registry.RegistryKey
 import net.minecraft.server.world.ServerWorld
 import net.minecraft.text.Text
+import net.minecraft.world.World
 import java.util.concurrent.ConcurrentHashMap
 import java.util.UUID
 
 
 object ItemStackingManager {
     private const val ABSOLUTE_MAX_STACK = 99  // New constant for maximum stack size
+
+    // Items waiting for a merge attempt per world; anything turned away is rechecked periodically
+    private const val MAX_QUEUED_MERGES = 4096
     private var initialized = false
-    private var excludedItems: Set<String> = emptySet()
     private val itemTracker = ConcurrentHashMap<UUID, Boolean>()
 
+    private val nameTemplates = Reference2ObjectOpenHashMap<Item, String>()
+    private var nameTemplateEpoch = -1
+
+    // Items waiting for a merge attempt, per world. Linked set keeps FIFO order and drops duplicates.
+    private val mergeQueues = HashMap<RegistryKey<World>, ObjectLinkedOpenHashSet<ItemEntity>>()
+
     // Cache config values
     private val config get() = LagCutConfig.config.itemStacking
 
@@ -62,38 +79,85 @@ object ItemStackingManager {
             logDebug("[DEBUG] Item stacking is disabled", "lagcut")
             return
         }
-        excludedItems = config.excludedItems.toSet()
+        ServerTickEvents.END_WORLD_TICK.register { world -> drainMergeQueue(world) }
+        ServerEntityEvents.ENTITY_LOAD.register { entity, _ ->
+            if (entity is ItemEntity && config.enabled) ItemSpatialIndex.insert(entity)
+        }
+        ServerEntityEvents.ENTITY_UNLOAD.register { entity, _ ->
+            if (entity is ItemEntity) ItemSpatialIndex.remove(entity)
+        }
         initialized = true
     }
 
     fun reinitialize() {
-        excludedItems = config.excludedItems.toSet()
+        // Cell size follows detectionRadius, so the index is rebuilt lazily from scratch
+        ItemSpatialIndex.reset()
         if (!initialized) {
             initialize()
         }
     }
 
     fun shutdown() {
+        mergeQueues.clear()
+        ItemSpatialIndex.reset()
         // Shutdown the scheduler to prevent tasks from lingering after server stop.
         scheduler.shutdownNow()
         logDebug("[DEBUG] ClearLag scheduler shut down", "lagcut")
     }
 
-    fun tryMergeItemEntities(item: ItemEntity): Boolean {
-        // Update display regardless of exclusion status
-        if (!item.world.isClient) {
-            updateItemDisplay(item)
+    /**
+     * Queues an item for a merge attempt at the end of this world tick. Called when the item
+     * spawns, lands, enters a fluid or its stack count changes, and periodically while it
+     * exists, so items drifting together in a stream still meet. A full queue turns items
+     * away; their periodic recheck queues them again later.
+     */
+    fun enqueueMerge(item: ItemEntity) {
+        if (item.world.isClient || !config.enabled) return
+        val world = item.world as? ServerWorld ?: return
+        val queue = mergeQueues.getOrPut(world.registryKey) { ObjectLinkedOpenHashSet() }
+        if (queue.size < MAX_QUEUED_MERGES) queue.add(item)
+    }
+
+    /**
+     * Vanilla's own merge scan is redundant while LagCut merges an item, so it is skipped
+     * unless the item is one LagCut leaves alone.
+     */
+    fun isMergeAuthority(item: ItemEntity): Boolean =
+        config.enabled && !item.world.isClient && !isItemExcluded(item)
+
+    private fun drainMergeQueue(world: ServerWorld) {
+        val queue = mergeQueues[world.registryKey] ?: return
+        if (queue.isEmpty()) return
+
+        val budgetNanos = config.mergeTimeBudgetMicros.coerceAtLeast(1) * 1000L
+        val start = System.nanoTime()
+        while (!queue.isEmpty() && System.nanoTime() - start < budgetNanos) {
+            val item = queue.removeFirst()
+            if (item.isRemoved) continue
+            tryMergeItemEntities(item)
         }
+    }
 
-        if (!isValidForMerge(item)) return false
+    fun tryMergeItemEntities(item: ItemEntity): Boolean {
+        val started = LagCutProfiler.begin()
+        try {
+            // Update display regardless of exclusion status
+            if (!item.world.isClient) {
+                updateItemDisplay(item)
+            }
 
-        val nearbyItems = findValidNearbyItems(item)
-        if (nearbyItems.isEmpty()) {
-            handleNametagVisibility(item)
-            return false
-        }
+            if (!isValidForMerge(item)) return false
+
+            val nearbyItems = findValidNearbyItems(item)
+            if (nearbyItems.isEmpty()) {
+                handleNametagVisibility(item)
+                return false
+            }
 
-        return mergeWithNearbyItems(item, nearbyItems)
+            return mergeWithNearbyItems(item, nearbyItems)
+        } finally {
+            LagCutProfiler.end(LagCutProfiler.Section.ITEM_MERGES, started)
+        }
     }
 
     private fun isValidForMerge(item: ItemEntity): Boolean =
@@ -112,59 +176,28 @@ object ItemStackingManager {
     }
 
     private fun isItemExcluded(item: ItemEntity): Boolean {
-        val itemType = Registries.ITEM.getId(item.stack.item).toString()
-        val config = LagCutConfig.config.itemStacking
-
-        // Check basic item exclusions
-        if (excludedItems.contains(itemType)) {
-            logDebug("[DEBUG] Item $itemType is in excludedItems", "lagcut")
-            return true
-        }
-
-
-        // Check dimension exclusions
-        val dimensionId = (item.world as? ServerWorld)?.registryKey?.value?.toString()
-        if (dimensionId != null && config.excludedDimensions.any { it.equals(dimensionId, ignoreCase = true) }) {
-            logDebug("[DEBUG] Item in excluded dimension: $dimensionId", "lagcut")
+        // Item id and dimension verdicts are precompiled
+        if (ExclusionRules.isItemExcluded(item.stack.item) ||
+            ExclusionRules.isItemStackingExcludedIn(item.world)) {
             return true
         }
 
-        // Check NBT patterns
-        val nbt = NbtCompound()
-        item.writeNbt(nbt)
-
-        // Convert NBT to string for raw searching
-        val nbtString = nbt.toString()
-
-        // Check each NBT exclusion pattern
-        val hasMatchingNbtPattern = config.nbtExclusionPatterns.any { pattern ->
-            val matchFound = nbtString.contains(pattern)
-            if (matchFound) {
-                logDebug("[DEBUG] Found matching NBT value: $pattern in NBT: $nbtString", "lagcut")
-            }
-            matchFound
-        }
-
-        if (hasMatchingNbtPattern) {
-            logDebug("[DEBUG] Item matches NBT exclusion pattern", "lagcut")
-            return true
-        }
-
-        return false
+        // Configured NBT patterns (compiled on reload)
+        return ExclusionRules.itemNbt.matches(item)
     }
 
-    private fun findValidNearbyItems(item: ItemEntity) =
-        item.world.getEntitiesByClass(
-            ItemEntity::class.java,
-            item.boundingBox.expand(config.detectionRadius)
-        ) { other ->
-            other != item &&
+    private fun findValidNearbyItems(item: ItemEntity): List<ItemEntity> {
+        // Candidates already share the item type and component fingerprint
+        val searchBox = item.boundingBox.expand(config.detectionRadius)
+        return ItemSpatialIndex.findCandidates(item) { other ->
+            !other.isRemoved &&
+                    other.boundingBox.intersects(searchBox) &&
                     other.stack.isOf(item.stack.item) &&
-                    !other.isRemoved &&
                     (other.isOnGround || isInWater(other)) &&
-                    !isItemExcluded(other) &&  // Add this check
+                    !isItemExcluded(other) &&
                     areComponentsEqual(other.stack, item.stack)
         }
+    }
 
     private fun mergeWithNearbyItems(item: ItemEntity, nearbyItems: List<ItemEntity>): Boolean {
         var merged = false
@@ -182,6 +215,7 @@ object ItemStackingManager {
                         item.stack.count = totalCount
                         other.discard()
                         merged = true
+                        LagCutMetrics.itemMerges.incrementAndGet()
                     }
                     // Case 2: Current stack is already at or above configured stack size
                     item.stack.count >= configuredStackSize -> {
@@ -196,6 +230,7 @@ object ItemStackingManager {
                         val transferAmount = configuredStackSize - item.stack.count
                         item.stack.count = configuredStackSize
                         other.stack.decrement(transferAmount)
+                        LagCutMetrics.itemMerges.incrementAndGet()
 
                         // Check if the remaining stack needs splitting
                         if (other.stack.count > configuredStackSize) {
@@ -252,12 +287,50 @@ object ItemStackingManager {
         }
         updateItemDisplay(item)
     }
+    /**
+     * Cached 64-bit hash of the components that decide whether two stacks may merge.
+     * Equal stacks always share a fingerprint, so it is safe to use as a bucket key.
+     */
+    fun componentFingerprint(stack: ItemStack): Long =
+        (stack as ComponentFingerprintHolder).getComponentFingerprintCompat()
+
+    /**
+     * Recomputes the fingerprint; called by the ItemStack mixin after its components changed.
+     */
+    fun computeComponentFingerprint(stack: ItemStack): Long {
+        var hash = 1L
+        for (componentType in componentsToCheck) {
+            hash = hash * 31 + (stack.get(componentType)?.hashCode() ?: 0)
+        }
+        return HashCommon.mix(hash)
+    }
+
     private fun areComponentsEqual(stack1: ItemStack, stack2: ItemStack): Boolean =
-        componentsToCheck.all { componentType ->
-            stack1.get(componentType) == stack2.get(componentType)
+        componentsMatch(stack1, componentFingerprint(stack1), stack2, componentFingerprint(stack2))
+
+    /**
+     * Compares the stacking-relevant components of two stacks, given their fingerprints.
+     * Different fingerprints settle it without touching a component.
+     */
+    fun componentsMatch(stack1: ItemStack, fingerprint1: Long, stack2: ItemStack, fingerprint2: Long): Boolean {
+        if (fingerprint1 != fingerprint2) return false
+        for (i in componentsToCheck.indices) {
+            val componentType = componentsToCheck[i]
+            if (stack1.get(componentType) != stack2.get(componentType)) return false
         }
+        return true
+    }
 
     fun updateItemDisplay(item: ItemEntity) {
+        // Only rebuild the name when the count or the config changed since the last render
+        val displayState = item as ItemDisplayState
+        val count = item.stack.count
+        val epoch = LagCutConfig.epoch
+        if (displayState.getDisplayedCountCompat() == count && displayState.getDisplayEpochCompat() == epoch) {
+            return
+        }
+        displayState.setDisplayStateCompat(count, epoch)
+
         // First check if item stacking is enabled
         if (!config.enabled) {
             removeItemDisplay(item)
@@ -277,24 +350,36 @@ object ItemStackingManager {
         }
 
         try {
-            val itemName = formatItemName(item.stack.item)
-            val format = config.stackNameFormat
-                .replace("<itemname>", itemName)
-                .replace("<itemamount>", item.stack.count.toString())
+            val format = nameTemplate(item.stack.item)
+                .replace("<itemamount>", count.toString())
 
             // Use KyoriHelper to parse the format and convert to Minecraft Text
             val formattedText = Text.of(KyoriHelper.stripFormatting(format))
 
             item.customName = formattedText
-            item.isCustomNameVisible = true
+            NametagOcclusion.showName(item, config.hideNametagsThroughBlocks)
         } catch (e: Exception) {
             // Fallback to simple display
-            item.customName = Text.literal("${item.stack.item.name.string} x${item.stack.count}")
-            item.isCustomNameVisible = true
+            item.customName = Text.literal("${item.stack.item.name.string} x$count")
+            NametagOcclusion.showName(item, config.hideNametagsThroughBlocks)
+        }
+    }
+
+    /**
+     * The configured name format with the item name already filled in, cached per [Item]
+     * and dropped whenever the config is reloaded.
+     */
+    private fun nameTemplate(item: Item): String {
+        if (nameTemplateEpoch != LagCutConfig.epoch) {
+            nameTemplates.clear()
+            nameTemplateEpoch = LagCutConfig.epoch
         }
+        return nameTemplates.get(item) ?: config.stackNameFormat
+            .replace("<itemname>", formatItemName(item))
+            .also { nameTemplates.put(item, it) }
     }
 
-    private fun formatItemName(item: net.minecraft.item.Item): String =
+    private fun formatItemName(item: Item): String =
         Registries.ITEM.getId(item).path
             .replace('_', ' ')
             .split(" ")
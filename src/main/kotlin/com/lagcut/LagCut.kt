@@ -61,6 +61,12 @@ object Lagcut : ModInitializer {
 		CommandRegistrar.registerCommands()
 		EntityStackManager.initialize()
 		ItemStackingManager.initialize()
+		NametagOcclusion.initialize()
+		AIThrottleController.initialize()
+		PathfindingScheduler.initialize()
+		DensityIndex.initialize()
+		LagCutProfiler.initialize()
+		MetricsExporter.initialize()
 		detectCobblemon()
 
 		logger.info("Lagcut Mod Initialized!")
@@ -70,12 +76,23 @@ object Lagcut : ModInitializer {
 			safeInitializeTasks()
 		}
 
+		ServerLifecycleEvents.SERVER_STARTED.register { serverInstance ->
+			// Registries and worlds are final now, precompute every exclusion verdict
+			ExclusionRules.rebuild(serverInstance)
+			MetricsExporter.start(serverInstance)
+		}
+
 		ServerLifecycleEvents.SERVER_STOPPING.register {
 			server = null
 			// Shutdown open executors from our mod
 			ClearLag.shutdown()
 			EntityStackManager.shutdown()
 			ItemStackingManager.shutdown()
+			NametagOcclusion.shutdown()
+			PathfindingScheduler.shutdown()
+			DensityIndex.shutdown()
+			LagCutProfiler.stop()
+			MetricsExporter.shutdown()
 			AIModification.shutdown()
 		}
 	}
@@ -0,0 +1,36 @@
+package com.lagcut
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Running totals of what LagCut did since the server started.
+ *
+ * Only the server thread writes them; the metrics endpoint reads them from its own thread,
+ * which is why they are atomics rather than plain fields.
+ */
+object LagCutMetrics {
+
+    // Parts of the AI that can be skipped by throttling, in the order of [throttledAi]
+    enum class AIPart(val label: String) { MOVEMENT("movement"), GOALS("goals"), TARGETS("targets"), PATHFINDING("pathfinding"), LOOK("look") }
+
+    @JvmField val stackMerges = AtomicLong()
+    @JvmField val entitiesAbsorbed = AtomicLong()
+    @JvmField val itemMerges = AtomicLong()
+    @JvmField val clearedPokemon = AtomicLong()
+    @JvmField val clearedMobs = AtomicLong()
+    @JvmField val clearedItems = AtomicLong()
+    @JvmField val throttledAi = AtomicLongArray(AIPart.entries.size)
+
+    fun recordClear(result: ClearLag.SweepResult) {
+        if (result.pokemon > 0) clearedPokemon.addAndGet(result.pokemon.toLong())
+        if (result.mobs > 0) clearedMobs.addAndGet(result.mobs.toLong())
+        if (result.items > 0) clearedItems.addAndGet(result.items.toLong())
+    }
+
+    /** Passes [allowed] through and counts it when throttling said no. */
+    fun throttled(part: AIPart, allowed: Boolean): Boolean {
+        if (!allowed) throttledAi.incrementAndGet(part.ordinal)
+        return allowed
+    }
+}
@@ -0,0 +1,168 @@
+package com.lagcut
+
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+
+/**
+ * Measures what LagCut's own hot paths cost per tick.
+ *
+ * Instrumented code brackets its work with [begin] and [end]. While profiling is off,
+ * [begin] only reads a flag and returns 0, which makes the matching [end] return at once.
+ * While it is on, every call is counted, its duration is added to the section total and
+ * recorded in a fixed power-of-two histogram, from which p50/p99 are read back.
+ * Sections whose calls are too short and too frequent to time each one (a single map
+ * lookup per mob) use [beginSampled] and [endSampled] instead: every call is counted, but
+ * only one in [SAMPLE_INTERVAL] is timed, and the section total is extrapolated from those.
+ * All sections run on the server thread, so no synchronisation is needed.
+ */
+object LagCutProfiler {
+
+    enum class Section(val label: String, val sampled: Boolean = false) {
+        MOB_MERGES("Mob stacking merges"),
+        ITEM_MERGES("Item stacking merges"),
+        CLEAR_SWEEPS("ClearLag sweeps"),
+        NAMETAGS("Nametag visibility"),
+        SPAWN_CAP("Spawn cap checks"),
+        AI_TIER_MAP("AI tier map rebuild"),
+        AI_TIER_LOOKUP("AI tier lookups", sampled = true)
+    }
+
+    // Bucket i holds durations below 2^i nanoseconds; the last one takes everything longer
+    private const val BUCKETS = 40
+
+    // Sampled sections time one call in this many
+    private const val SAMPLE_INTERVAL = 64
+
+    private class Stats {
+        var calls = 0L
+        var samples = 0L
+        var nanos = 0L
+        val histogram = LongArray(BUCKETS)
+
+        fun record(duration: Long) {
+            calls++
+            sample(duration, 1)
+        }
+
+        // A timed call standing for [weight] calls in the section total
+        fun sample(duration: Long, weight: Int) {
+            samples++
+            nanos += duration * weight
+            val bucket = (64 - java.lang.Long.numberOfLeadingZeros(duration)).coerceAtMost(BUCKETS - 1)
+            histogram[bucket]++
+        }
+
+        /** Upper bound of the bucket holding the given quantile of the timed calls, in nanoseconds. */
+        fun percentile(quantile: Double): Long {
+            if (samples == 0L) return 0L
+            val rank = Math.ceil(samples * quantile).toLong().coerceAtLeast(1L)
+            var seen = 0L
+            for (i in 0 until BUCKETS) {
+                seen += histogram[i]
+                if (seen >= rank) return 1L shl i
+            }
+            return 1L shl (BUCKETS - 1)
+        }
+    }
+
+    @JvmField
+    var enabled = false
+
+    private val stats = Array(Section.entries.size) { Stats() }
+    private var ticks = 0L
+    private var tickNanos = 0L
+    private var tickStart = 0L
+    private var startedAt = 0L
+
+    fun initialize() {
+        ServerTickEvents.START_SERVER_TICK.register {
+            if (enabled) tickStart = System.nanoTime()
+        }
+        ServerTickEvents.END_SERVER_TICK.register {
+            if (enabled && tickStart != 0L) {
+                tickNanos += System.nanoTime() - tickStart
+                ticks++
+            }
+        }
+    }
+
+    /** Clears all samples and starts profiling. */
+    fun start() {
+        for (section in stats) {
+            section.calls = 0L
+            section.samples = 0L
+            section.nanos = 0L
+            section.histogram.fill(0L)
+        }
+        ticks = 0L
+        tickNanos = 0L
+        tickStart = 0L
+        startedAt = System.currentTimeMillis()
+        enabled = true
+    }
+
+    /** Stops profiling; the samples stay available for [report]. */
+    fun stop() {
+        enabled = false
+        tickStart = 0L
+    }
+
+    @JvmStatic
+    fun begin(): Long = if (enabled) System.nanoTime() else 0L
+
+    @JvmStatic
+    fun end(section: Section, startNanos: Long) {
+        if (startNanos == 0L || !enabled) return
+        stats[section.ordinal].record(System.nanoTime() - startNanos)
+    }
+
+    /** Counts a call of a sampled section; returns a start time only for the calls that get timed. */
+    @JvmStatic
+    fun beginSampled(section: Section): Long {
+        if (!enabled) return 0L
+        val sample = stats[section.ordinal]
+        sample.calls++
+        return if (sample.calls % SAMPLE_INTERVAL == 0L) System.nanoTime() else 0L
+    }
+
+    @JvmStatic
+    fun endSampled(section: Section, startNanos: Long) {
+        if (startNanos == 0L || !enabled) return
+        stats[section.ordinal].sample(System.nanoTime() - startNanos, SAMPLE_INTERVAL)
+    }
+
+    /**
+     * One line per section with samples: share of the measured tick time, time and calls per
+     * tick and the p50/p99 duration of a single call.
+     */
+    fun report(): List<String> {
+        if (startedAt == 0L) return listOf("No profile recorded yet. Use '/lc profile start' first.")
+        val lines = ArrayList<String>()
+        val seconds = (System.currentTimeMillis() - startedAt) / 1000
+        val mspt = if (ticks > 0) tickNanos / ticks / 1_000_000.0 else 0.0
+        lines.add("${if (enabled) "Profiling" else "Stopped"} | $ticks ticks over ${seconds}s | MSPT %.2f".format(mspt))
+
+        for (section in Section.entries) {
+            val sample = stats[section.ordinal]
+            if (sample.calls == 0L) continue
+            val share = if (tickNanos > 0) sample.nanos * 100.0 / tickNanos else 0.0
+            val perTick = ticks.coerceAtLeast(1L).toDouble()
+            lines.add(
+                "${section.label}: %.2f%% of MSPT (%.3f ms/tick), %.1f calls/tick, p50 %s, p99 %s%s".format(
+                    share,
+                    sample.nanos / perTick / 1_000_000.0,
+                    sample.calls / perTick,
+                    formatNanos(sample.percentile(0.50)),
+                    formatNanos(sample.percentile(0.99)),
+                    if (section.sampled) " (1 in $SAMPLE_INTERVAL calls timed)" else ""
+                )
+            )
+        }
+        return lines
+    }
+
+    private fun formatNanos(nanos: Long): String = when {
+        nanos < 1_000L -> "<${nanos}ns"
+        nanos < 1_000_000L -> "<%.1fµs".format(nanos / 1_000.0)
+        else -> "<%.2fms".format(nanos / 1_000_000.0)
+    }
+}
@@ -0,0 +1,142 @@
+package com.lagcut
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import net.minecraft.util.math.BlockPos
+import kotlin.math.abs
+
+/**
+ * Union-find clustering of points that share a group (for mobs: entity type and baby flag).
+ *
+ * Two points of the same group whose coordinates all lie within `radius` of each other are
+ * joined, and so, transitively, is everything linked to them. Points are bucketed into cubic
+ * cells of edge `radius` per group, so every point of a cell is within reach of every other
+ * and a cell only has to be linked once to each of its 26 neighbours: the pass is linear in
+ * the number of points rather than in the number of pairs. Holds no game state.
+ */
+class MergeClusters {
+    private var xs = DoubleArray(INITIAL_CAPACITY)
+    private var ys = DoubleArray(INITIAL_CAPACITY)
+    private var zs = DoubleArray(INITIAL_CAPACITY)
+    private var groups = IntArray(INITIAL_CAPACITY)
+    private var parent = IntArray(INITIAL_CAPACITY)
+    // Cell -> group -> point indices; keyed exactly, so a bucket is always one cell of one group
+    private val buckets = Long2ObjectOpenHashMap<Int2ObjectOpenHashMap<IntArrayList>>()
+
+    var size = 0
+        private set
+
+    fun clear() {
+        size = 0
+        buckets.clear()
+    }
+
+    /** Adds a point and returns its index; call [cluster] once all points are in. */
+    fun add(x: Double, y: Double, z: Double, group: Int): Int {
+        if (size == parent.size) grow()
+        val index = size++
+        xs[index] = x
+        ys[index] = y
+        zs[index] = z
+        groups[index] = group
+        parent[index] = index
+        return index
+    }
+
+    /** Links every pair of same-group points within [radius], which must be positive; afterwards [find] names each cluster. */
+    fun cluster(radius: Double) {
+        buckets.clear()
+        for (i in 0 until size) {
+            val cell = SpatialBuckets.cellOf(xs[i], ys[i], zs[i], radius)
+            var groupsInCell = buckets.get(cell)
+            if (groupsInCell == null) {
+                groupsInCell = Int2ObjectOpenHashMap()
+                buckets.put(cell, groupsInCell)
+            }
+            var members = groupsInCell.get(groups[i])
+            if (members == null) {
+                members = IntArrayList()
+                groupsInCell.put(groups[i], members)
+            }
+            members.add(i)
+        }
+
+        for (cellEntry in buckets.long2ObjectEntrySet()) {
+            val cell = cellEntry.longKey
+            val cx = BlockPos.unpackLongX(cell)
+            val cy = BlockPos.unpackLongY(cell)
+            val cz = BlockPos.unpackLongZ(cell)
+            for (groupEntry in cellEntry.value.int2ObjectEntrySet()) {
+                val group = groupEntry.intKey
+                val members = groupEntry.value
+
+                // A cell is no wider than the radius, so its points all belong together
+                val first = members.getInt(0)
+                for (m in 1 until members.size) union(first, members.getInt(m))
+
+                for (dx in -1..1) {
+                    for (dy in -1..1) {
+                        for (dz in -1..1) {
+                            if (dx == 0 && dy == 0 && dz == 0) continue
+                            val neighbours = buckets.get(BlockPos.asLong(cx + dx, cy + dy, cz + dz))?.get(group) ?: continue
+                            linkCells(members, neighbours, radius)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** The cluster representative of point [index]. */
+    fun find(index: Int): Int {
+        var i = index
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]
+            i = parent[i]
+        }
+        return i
+    }
+
+    // Joins two neighbouring buckets of one group through their first pair in reach, unless already joined
+    private fun linkCells(members: IntArrayList, neighbours: IntArrayList, radius: Double) {
+        if (find(members.getInt(0)) == find(neighbours.getInt(0))) return
+        for (a in 0 until members.size) {
+            val i = members.getInt(a)
+            for (b in 0 until neighbours.size) {
+                if (linkIfNear(i, neighbours.getInt(b), radius)) return
+            }
+        }
+    }
+
+    private fun linkIfNear(i: Int, j: Int, radius: Double): Boolean {
+        if (abs(xs[i] - xs[j]) > radius ||
+            abs(ys[i] - ys[j]) > radius ||
+            abs(zs[i] - zs[j]) > radius) {
+            return false
+        }
+        union(i, j)
+        return true
+    }
+
+    private fun union(i: Int, j: Int) {
+        val rootI = find(i)
+        val rootJ = find(j)
+        if (rootI == rootJ) return
+        // The lower index wins, so clusters come out the same for the same input order
+        if (rootI < rootJ) parent[rootJ] = rootI else parent[rootI] = rootJ
+    }
+
+    private fun grow() {
+        val capacity = parent.size * 2
+        xs = xs.copyOf(capacity)
+        ys = ys.copyOf(capacity)
+        zs = zs.copyOf(capacity)
+        groups = groups.copyOf(capacity)
+        parent = parent.copyOf(capacity)
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 256
+    }
+}
@@ -0,0 +1,211 @@
+package com.lagcut
+
+import com.blanketutils.utils.logDebug
+import com.lagcut.api.TPSTracker
+import com.lagcut.utils.LagCutConfig
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+import net.minecraft.server.MinecraftServer
+import org.slf4j.LoggerFactory
+import java.net.InetSocketAddress
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Optional Prometheus / OpenMetrics endpoint.
+ *
+ * Every `refreshTicks` the server thread copies TPS, MSPT, memory, chunk and entity counts
+ * into an immutable [Snapshot] and publishes it through a volatile field. Scrapes are served
+ * on the exporter's own thread from that snapshot and from the [LagCutMetrics] counters, so
+ * a slow or stuck scraper can never hold up a tick.
+ */
+object MetricsExporter {
+    private val logger = LoggerFactory.getLogger("LagCut-Metrics")
+
+    private class WorldSample(
+        val id: String,
+        val loadedChunks: Int,
+        val players: Int,
+        val entities: IntArray
+    )
+
+    private class Snapshot(
+        val tps: Double,
+        val msptMean: Double,
+        val msptP50: Double,
+        val msptP95: Double,
+        val msptP99: Double,
+        val msptMax: Double,
+        val memoryUsedBytes: Long,
+        val memoryMaxBytes: Long,
+        val worlds: List<WorldSample>
+    )
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+    private var httpServer: HttpServer? = null
+    private var executor: ExecutorService? = null
+    private var ticksSinceRefresh = 0
+
+    private val settings get() = LagCutConfig.config.metrics
+
+    fun initialize() {
+        ServerTickEvents.END_SERVER_TICK.register { server ->
+            if (httpServer == null) return@register
+            if (++ticksSinceRefresh < settings.refreshTicks.coerceAtLeast(1)) return@register
+            ticksSinceRefresh = 0
+            snapshot = capture(server)
+        }
+    }
+
+    fun start(server: MinecraftServer) {
+        if (!settings.enabled || httpServer != null) return
+        try {
+            val http = HttpServer.create(InetSocketAddress(settings.bindAddress, settings.port), 0)
+            val pool = Executors.newSingleThreadExecutor { runnable ->
+                Thread(runnable, "LagCut-Metrics").apply { isDaemon = true }
+            }
+            http.createContext("/metrics") { exchange -> handle(exchange) }
+            http.executor = pool
+            http.start()
+
+            snapshot = capture(server)
+            httpServer = http
+            executor = pool
+            logger.info("Serving metrics on http://${settings.bindAddress}:${settings.port}/metrics")
+        } catch (e: Exception) {
+            logger.error("Failed to start the metrics endpoint on ${settings.bindAddress}:${settings.port}", e)
+        }
+    }
+
+    fun shutdown() {
+        httpServer?.stop(0)
+        httpServer = null
+        executor?.shutdownNow()
+        executor = null
+        snapshot = null
+    }
+
+    /** Applies a reloaded config: the endpoint is restarted so address and port changes take effect. */
+    fun reinitialize(server: MinecraftServer) {
+        shutdown()
+        start(server)
+    }
+
+    private fun capture(server: MinecraftServer): Snapshot {
+        val tickTimes = server.tickTimes
+        val msptMean = TPSTracker.mean(tickTimes) / 1_000_000.0
+        val runtime = Runtime.getRuntime()
+
+        val worlds = server.worlds.map { world ->
+            WorldSample(
+                world.registryKey.value.toString(),
+                world.chunkManager.loadedChunkCount,
+                world.players.size,
+                IntArray(DensityIndex.Category.entries.size) { DensityIndex.count(world, DensityIndex.Category.entries[it]) }
+            )
+        }
+
+        return Snapshot(
+            tps = if (msptMean > 0.0) minOf(20.0, 1000.0 / msptMean) else 20.0,
+            msptMean = msptMean,
+            msptP50 = TPSTracker.getTickTimePercentile(tickTimes, 0.50),
+            msptP95 = TPSTracker.getTickTimePercentile(tickTimes, 0.95),
+            msptP99 = TPSTracker.getTickTimePercentile(tickTimes, 0.99),
+            msptMax = TPSTracker.getTickTimePercentile(tickTimes, 1.0),
+            memoryUsedBytes = runtime.totalMemory() - runtime.freeMemory(),
+            memoryMaxBytes = runtime.maxMemory(),
+            worlds = worlds
+        )
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        try {
+            if (exchange.requestMethod != "GET" && exchange.requestMethod != "HEAD") {
+                exchange.sendResponseHeaders(405, -1)
+                return
+            }
+            val body = render().toByteArray(Charsets.UTF_8)
+            exchange.responseHeaders.set("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+            if (exchange.requestMethod == "HEAD") {
+                exchange.sendResponseHeaders(200, -1)
+                return
+            }
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        } catch (e: Exception) {
+            logDebug("[DEBUG] Failed to serve metrics: ${e.message}", "lagcut")
+        } finally {
+            exchange.close()
+        }
+    }
+
+    private fun render(): String {
+        val out = StringBuilder(4096)
+        snapshot?.let { current ->
+            gauge(out, "lagcut_tps", "Ticks per second over the last 100 ticks.")
+            out.append("lagcut_tps ").append(current.tps).append('\n')
+
+            gauge(out, "lagcut_mspt_milliseconds", "Milliseconds per tick over the last 100 ticks.")
+            out.append("lagcut_mspt_milliseconds{stat=\"mean\"} ").append(current.msptMean).append('\n')
+            out.append("lagcut_mspt_milliseconds{stat=\"p50\"} ").append(current.msptP50).append('\n')
+            out.append("lagcut_mspt_milliseconds{stat=\"p95\"} ").append(current.msptP95).append('\n')
+            out.append("lagcut_mspt_milliseconds{stat=\"p99\"} ").append(current.msptP99).append('\n')
+            out.append("lagcut_mspt_milliseconds{stat=\"max\"} ").append(current.msptMax).append('\n')
+
+            gauge(out, "lagcut_memory_used_bytes", "Heap in use.")
+            out.append("lagcut_memory_used_bytes ").append(current.memoryUsedBytes).append('\n')
+            gauge(out, "lagcut_memory_max_bytes", "Maximum heap size.")
+            out.append("lagcut_memory_max_bytes ").append(current.memoryMaxBytes).append('\n')
+
+            gauge(out, "lagcut_loaded_chunks", "Loaded chunks per world.")
+            for (world in current.worlds) {
+                out.append("lagcut_loaded_chunks{world=\"").append(world.id).append("\"} ").append(world.loadedChunks).append('\n')
+            }
+
+            gauge(out, "lagcut_players", "Players per world.")
+            for (world in current.worlds) {
+                out.append("lagcut_players{world=\"").append(world.id).append("\"} ").append(world.players).append('\n')
+            }
+
+            gauge(out, "lagcut_entities", "Loaded entities per world and category, players excluded.")
+            for (world in current.worlds) {
+                for (category in DensityIndex.Category.entries) {
+                    out.append("lagcut_entities{world=\"").append(world.id)
+                        .append("\",category=\"").append(category.name.lowercase()).append("\"} ")
+                        .append(world.entities[category.ordinal]).append('\n')
+                }
+            }
+        }
+
+        counter(out, "lagcut_stack_merges_total", "Mob stack merges.", LagCutMetrics.stackMerges.get())
+        counter(out, "lagcut_entities_absorbed_total", "Mobs absorbed into stacks.", LagCutMetrics.entitiesAbsorbed.get())
+        counter(out, "lagcut_item_merges_total", "Item entity merges.", LagCutMetrics.itemMerges.get())
+
+        out.append("# HELP lagcut_cleared_entities_total Entities removed by ClearLag.\n")
+        out.append("# TYPE lagcut_cleared_entities_total counter\n")
+        out.append("lagcut_cleared_entities_total{category=\"pokemon\"} ").append(LagCutMetrics.clearedPokemon.get()).append('\n')
+        out.append("lagcut_cleared_entities_total{category=\"mob\"} ").append(LagCutMetrics.clearedMobs.get()).append('\n')
+        out.append("lagcut_cleared_entities_total{category=\"item\"} ").append(LagCutMetrics.clearedItems.get()).append('\n')
+
+        out.append("# HELP lagcut_ai_throttled_total Mob AI updates skipped by throttling.\n")
+        out.append("# TYPE lagcut_ai_throttled_total counter\n")
+        for (part in LagCutMetrics.AIPart.entries) {
+            out.append("lagcut_ai_throttled_total{part=\"").append(part.label).append("\"} ")
+                .append(LagCutMetrics.throttledAi.get(part.ordinal)).append('\n')
+        }
+        return out.toString()
+    }
+
+    private fun gauge(out: StringBuilder, name: String, help: String) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+        out.append("# TYPE ").append(name).append(" gauge\n")
+    }
+
+    private fun counter(out: StringBuilder, name: String, help: String, value: Long) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+        out.append("# TYPE ").append(name).append(" counter\n")
+        out.append(name).append(' ').append(value).append('\n')
+    }
+}
@@ -4,49 +4,60 @@ import com.blanketutils.colors.KyoriHelper
 import com.lagcut.api.StackDataProvider
 import com.lagcut.utils.LagCutConfig
 import com.blanketutils.utils.logDebug
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents
 import net.minecraft.entity.Entity
 import net.minecraft.entity.EntityType
 import net.minecraft.entity.EquipmentSlot
+import net.minecraft.entity.ExperienceOrbEntity
 import net.minecraft.entity.LivingEntity
+import net.minecraft.entity.damage.DamageSource
 import net.minecraft.entity.passive.PassiveEntity
 import net.minecraft.entity.player.PlayerEntity // Import PlayerEntity
 import net.minecraft.item.ItemStack
+import net.minecraft.loot.context.LootContext
+import net.minecraft.loot.context.LootContextParameterSet
+import net.minecraft.loot.context.LootContextParameters
+import net.minecraft.loot.context.LootContextTypes
+import net.minecraft.registry.Registries
+import net.minecraft.registry.tag.DamageTypeTags
 import net.minecraft.server.MinecraftServer
 import net.minecraft.server.world.ServerWorld
 import net.minecraft.text.Text
 import net.minecraft.util.math.Vec3d
+import net.minecraft.world.GameRules
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
-import kotlin.collections.Set
+import kotlin.math.abs
 
 object EntityStackManager {
     private const val SPAWN_HEIGHT_OFFSET = 0.1
     private const val MIN_STACK_SIZE = 1
-
-    // Fraction of living entities to sample each merge tick (0.25 = 25%)
-    private const val MERGE_SAMPLE_FRACTION = 0.25
+    // Smallest reach a merge pass works with; the clustering divides by it, so 0 or a negative
+    // radius would put every mob of a type in one cell and one world-wide cluster
+    private const val MIN_DETECTION_RADIUS = 0.25
 
     private enum class EntityStatus { STACKED, DYING, PROCESSING }
     private val entityTracker = ConcurrentHashMap<UUID, EntityStatus>()
 
-    // Replace lazy with mutable property
-    private var excludedEntities: Set<String> = emptySet()
-
     // Keep config accessor for convenience
     private val config get() = LagCutConfig.config.entityStacking
 
+    private val detectionRadius: Double
+        get() = config.detectionRadius.let { if (it >= MIN_DETECTION_RADIUS) it else MIN_DETECTION_RADIUS }
+
+    // Reused by every merge pass (server thread only)
+    private val clusters = MergeClusters()
+    private val candidates = ArrayList<LivingEntity>()
+
     // Create a scheduler similar to ClearLag's implementation
     private val scheduler = Executors.newSingleThreadScheduledExecutor()
 
     private var initialized = false
 
     fun reinitialize() {
-        // Update excluded entities
-        excludedEntities = config.excludedEntities.toSet()
-
         if (!initialized) {
             initialize()
         } else if (config.enabled) {
@@ -60,7 +71,6 @@ object EntityStackManager {
             return
         }
 
-        excludedEntities = config.excludedEntities.toSet()
         registerScheduler()
         initialized = true
     }
@@ -94,7 +104,8 @@ object EntityStackManager {
         pos: Vec3d,
         yaw: Float,
         pitch: Float,
-        attacker: PlayerEntity? = null  // Add attacker parameter
+        attacker: PlayerEntity? = null,  // Add attacker parameter
+        damageSource: DamageSource? = null
     ) {
         if (!config.enabled || currentStackSize <= MIN_STACK_SIZE ||
             entityTracker[entity.uuid] == EntityStatus.PROCESSING ||
@@ -114,64 +125,9 @@ object EntityStackManager {
             entityTracker.remove(entity.uuid)
 
             if (config.deleteEntireStackOnKill) {
-                // Generate drops and XP for each entity in the stack
-                repeat(currentStackSize - 1) {
-                    world.server.executeSync {
-                        try {
-                            val entityToKill = entity.type.create(world)?.apply {
-                                setPosition(pos)
-                                setYaw(yaw)
-                                setPitch(pitch)
-                                setSilent(true)
-                                isSilent = true
-                                setNoGravity(true)
-                                noClip = true
-                                isInvisible = true
-                                boundingBox = boundingBox.shrink(0.0, 0.0, 0.0)
-
-                                // Copy relevant properties from the original entity
-                                (this as? LivingEntity)?.let { living ->
-                                    living.health = 1f // Set to 1 HP so it's alive when spawned
-                                    if (entity is LivingEntity && entity.isBaby) {
-                                        when (living) {
-                                            is PassiveEntity -> living.breedingAge = -24000  // Set as baby
-                                            // Add other specific entity types if needed
-                                        }
-                                    }
-                                    // Copy equipment if configured
-                                    if (config.preserveOriginalEntityOnDeath) {
-                                        (entity as? LivingEntity)?.let { originalEntity ->
-                                            for (slot in EquipmentSlot.values()) {
-                                                living.equipStack(slot, originalEntity.getEquippedStack(slot).copy())
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-
-                            // Spawn and kill the entity to generate drops and XP without immunity
-                            entityToKill?.let { newEntity ->
-                                if (world.spawnEntity(newEntity)) {
-                                    // If killed by a player, use player damage source to ensure XP drops
-                                    (newEntity as? LivingEntity)?.let { living ->
-                                        if (attacker != null) {
-                                            living.damage(
-                                                world.damageSources.playerAttack(attacker),
-                                                Float.MAX_VALUE
-                                            )
-                                        } else {
-                                            living.damage(
-                                                world.damageSources.generic(),
-                                                Float.MAX_VALUE
-                                            )
-                                        }
-                                    } ?: newEntity.kill()
-                                }
-                            }
-                        } catch (e: Exception) {
-                            logDebug("[DEBUG] Error spawning entity for drops: ${e.message}", "lagcut")
-                        }
-                    }
+                // The killed entity drops its own loot; roll the rest of the stack in one batch
+                (entity as? LivingEntity)?.let { living ->
+                    dropStackLoot(living, world, currentStackSize - 1, pos, damageSource ?: world.damageSources.generic(), attacker)
                 }
             } else {
                 // Original behavior - spawn remaining stack with equipment if configured
@@ -199,6 +155,100 @@ object EntityStackManager {
         }
     }
 
+    /**
+     * Stack health pool: lethal damage to a stacked entity costs it one member instead of
+     * its life. The member's loot and XP drop, the stack shrinks by one and the same entity
+     * carries on at full health, so farms never churn entities. Returns false (and the
+     * entity dies as usual) for the last member, for damage that bypasses invulnerability
+     * such as /kill or the void, and whenever the pool is off.
+     */
+    fun absorbLethalDamage(entity: LivingEntity, damageSource: DamageSource, attackingPlayer: PlayerEntity?): Boolean {
+        if (!config.enabled || !config.stackHealthPool || config.deleteEntireStackOnKill) return false
+        if (damageSource.isIn(DamageTypeTags.BYPASSES_INVULNERABILITY)) return false
+
+        val stackEntity = entity as? StackDataProvider ?: return false
+        val stackSize = stackEntity.getStackSizeCompat()
+        if (!stackEntity.isStackedCompat() || stackSize <= MIN_STACK_SIZE || isEntityExcluded(entity)) return false
+        val world = entity.world as? ServerWorld ?: return false
+
+        dropStackLoot(entity, world, 1, entity.pos, damageSource, attackingPlayer)
+
+        // What is left is a fresh member: full health, no fire or lingering effects
+        stackEntity.setStackSizeCompat(stackSize - 1)
+        updateEntityDisplay(entity, stackSize - 1)
+        entity.health = entity.maxHealth
+        entity.extinguish()
+        entity.clearStatusEffects()
+        return true
+    }
+
+    /**
+     * Drops the loot and XP of [count] stack members that died with [entity].
+     *
+     * The entity's loot table is rolled [count] times against one shared [LootContext]
+     * built the way vanilla builds it for a kill, so player-only drops and looting still
+     * apply when [attacker] is set. The rolls are merged into as few full stacks as
+     * possible, and the XP is summed into a single orb.
+     */
+    private fun dropStackLoot(
+        entity: LivingEntity,
+        world: ServerWorld,
+        count: Int,
+        pos: Vec3d,
+        damageSource: DamageSource,
+        attacker: PlayerEntity?
+    ) {
+        if (!world.gameRules.getBoolean(GameRules.DO_MOB_LOOT)) return
+
+        try {
+            val lootTable = world.server.reloadableRegistries.getLootTable(entity.lootTable)
+            var parameters = LootContextParameterSet.Builder(world)
+                .add(LootContextParameters.THIS_ENTITY, entity)
+                .add(LootContextParameters.ORIGIN, pos)
+                .add(LootContextParameters.DAMAGE_SOURCE, damageSource)
+                .addOptional(LootContextParameters.ATTACKING_ENTITY, damageSource.attacker)
+                .addOptional(LootContextParameters.DIRECT_ATTACKING_ENTITY, damageSource.source)
+            if (attacker != null) {
+                parameters = parameters.add(LootContextParameters.LAST_DAMAGE_PLAYER, attacker).luck(attacker.luck)
+            }
+            val context = LootContext.Builder(parameters.build(LootContextTypes.ENTITY)).build(Optional.empty())
+
+            val drops = ArrayList<ItemStack>()
+            repeat(count) {
+                lootTable.generateLoot(context) { stack -> mergeDrop(drops, stack) }
+            }
+            for (stack in drops) {
+                entity.dropStack(stack)
+            }
+
+            // Vanilla only drops XP for kills a player took part in
+            if (attacker != null) {
+                var experience = 0
+                repeat(count) { experience += entity.getXpToDrop(world, attacker) }
+                if (experience > 0) {
+                    world.spawnEntity(ExperienceOrbEntity(world, pos.x, pos.y, pos.z, experience))
+                }
+            }
+
+            logDebug("[DEBUG] Dropped batch loot for $count stacked ${entity.type.untranslatedName}: ${drops.size} item entities", "lagcut")
+        } catch (e: Exception) {
+            logDebug("[DEBUG] Error generating stack loot: ${e.message}", "lagcut")
+        }
+    }
+
+    // Fills existing stacks of the same item first, so N rolls need the fewest item entities
+    private fun mergeDrop(drops: MutableList<ItemStack>, stack: ItemStack) {
+        if (stack.isEmpty) return
+        for (existing in drops) {
+            if (existing.count >= existing.maxCount || !ItemStack.areItemsAndComponentsEqual(existing, stack)) continue
+            val moved = minOf(stack.count, existing.maxCount - existing.count)
+            existing.increment(moved)
+            stack.decrement(moved)
+            if (stack.isEmpty) return
+        }
+        drops.add(stack.copy())
+    }
+
     data class SpawnParameters(
         val world: ServerWorld,
         val entityType: EntityType<*>,
@@ -280,156 +330,102 @@ object EntityStackManager {
     }
 
     private fun isEntityExcluded(entity: Entity): Boolean {
-        // Quick check for players and non-minecraft entities
-        if (entity is PlayerEntity ||
-            EntityType.getId(entity.type).namespace != "minecraft") {
+        // Type (players, non-minecraft, configured types/ids) and dimension verdicts are precompiled
+        if (ExclusionRules.isStackingExcluded(entity.type) ||
+            ExclusionRules.isStackingExcludedIn(entity.world)) {
             return true
         }
 
-        val entityType = entity.type.toString()
-        val config = LagCutConfig.config.entityStacking
-
-        // Check entity type exclusions
-        if (config.excludedEntityTypes.any { it.equals(entityType, ignoreCase = true) }) {
-            logDebug("[DEBUG] Entity type $entityType is in excludedEntityTypes", "lagcut")
-            return true
-        }
-
-        // Check specific entity exclusions
-        if (excludedEntities.contains(EntityType.getId(entity.type).toString())) {
-            logDebug("[DEBUG] Entity $entityType is in excludedEntities", "lagcut")
-            return true
-        }
-
-        // Check dimension exclusions
-        val dimensionId = (entity.world as? ServerWorld)?.registryKey?.value?.toString()
-        if (dimensionId != null && config.excludedDimensions.any { it.equals(dimensionId, ignoreCase = true) }) {
-            logDebug("[DEBUG] Entity in excluded dimension: $dimensionId", "lagcut")
-            return true
-        }
-
-        // Check NBT patterns
-        val nbt = net.minecraft.nbt.NbtCompound()
-        entity.writeNbt(nbt)
-
-        val hasMatchingNbtPattern = config.nbtExclusionPatterns.any { pattern ->
-            val nbtString = nbt.toString()
-            val matchFound = nbtString.contains(pattern)
-            if (matchFound) {
-                logDebug("[DEBUG] Found matching NBT value: $pattern in NBT: $nbtString", "lagcut")
-            }
-            matchFound
-        }
-
-        if (hasMatchingNbtPattern) {
-            logDebug("[DEBUG] Entity matches NBT exclusion pattern", "lagcut")
-            return true
-        }
-
-        return false
+        return ExclusionRules.stackingNbt.matches(entity)
     }
 
-    // --- Refactored processMerges ---
-    // Instead of iterating over every living entity, we sample a fraction to reduce load.
+    // One deterministic pass: every mergeable mob is clustered by type, baby flag and reach,
+    // and each cluster is consolidated at once instead of sampling a few merges per run.
     private fun processMerges(world: ServerWorld) {
         if (!config.enabled) return
 
-        val processed = mutableSetOf<UUID>()
-        val livingEntities = world.iterateEntities().filterIsInstance<LivingEntity>().toList()
-        val sampleSize = (livingEntities.size * MERGE_SAMPLE_FRACTION).toInt().coerceAtLeast(1)
-        val sampledEntities = livingEntities.shuffled().take(sampleSize)
-        for (entity in sampledEntities) {
-            if (processed.contains(entity.uuid)) continue
-            if (!isValidForMerge(entity)) continue
-            if (entityTracker[entity.uuid] == EntityStatus.PROCESSING) continue
-
-            val nearbyEntities = findValidNearbyEntities(world, entity, processed)
-            if (nearbyEntities.isNotEmpty()) {
-                safelyMergeEntityGroup(entity, nearbyEntities, processed)
+        val started = LagCutProfiler.begin()
+        try {
+            clusters.clear()
+            candidates.clear()
+            for (entity in world.iterateEntities()) {
+                if (entity !is LivingEntity || entity !is StackDataProvider || !isValidForMerge(entity)) continue
+                val baby = if (!config.stackBabyWithAdult && entity.isBaby) 1 else 0
+                clusters.add(entity.x, entity.y, entity.z, (Registries.ENTITY_TYPE.getRawId(entity.type) shl 1) or baby)
+                candidates.add(entity)
+            }
+            if (candidates.size < 2) return
+            clusters.cluster(detectionRadius)
+
+            val members = Int2ObjectOpenHashMap<MutableList<LivingEntity>>()
+            for (i in candidates.indices) {
+                val root = clusters.find(i)
+                var cluster = members.get(root)
+                if (cluster == null) {
+                    cluster = ArrayList()
+                    members.put(root, cluster)
+                }
+                cluster.add(candidates[i])
             }
+            for (cluster in members.values) {
+                if (cluster.size > 1) mergeCluster(cluster)
+            }
+        } finally {
+            candidates.clear()
+            LagCutProfiler.end(LagCutProfiler.Section.MOB_MERGES, started)
         }
     }
 
-    private fun findValidNearbyEntities(
-        world: ServerWorld,
-        entity: LivingEntity,
-        processed: Set<UUID>
-    ): List<LivingEntity> {
-        // Get the bounding box to search for nearby entities
-        val searchBox = entity.boundingBox.expand(config.detectionRadius)
-
-        // Find all valid entities within the search radius
-        return world.getOtherEntities(
-            entity,
-            searchBox
-        ) { other ->
-            other is LivingEntity &&                    // Must be a living entity
-                    other.type == entity.type &&            // Must be same entity type
-                    !processed.contains(other.uuid) &&       // Not already processed
-                    isValidForMerge(other) &&                // Passes basic merge checks
-                    (config.stackBabyWithAdult || other.isBaby == entity.isBaby)
-        }.filterIsInstance<LivingEntity>()
-    }
+    /**
+     * Consolidates one cluster: the largest stacks are the targets and are filled up to
+     * maxStackSize from the smallest ones, which are discarded once drained. A cluster can
+     * chain across a whole pasture, so a target only takes from donors within
+     * detectionRadius of itself; nothing is pulled in from further away.
+     */
+    private fun mergeCluster(cluster: MutableList<LivingEntity>) {
+        cluster.sortByDescending { (it as StackDataProvider).getStackSizeCompat() }
+        val initial = IntArray(cluster.size) { (cluster[it] as StackDataProvider).getStackSizeCompat() }
+        val sizes = initial.copyOf()
+        val maxSize = config.maxStackSize
+        val radius = detectionRadius
+
+        for (target in cluster.indices) {
+            if (sizes[target] == 0) continue
+            val targetEntity = cluster[target]
+            var donor = cluster.size - 1
+            while (donor > target && sizes[target] < maxSize) {
+                if (sizes[donor] > 0 && isInReach(targetEntity, cluster[donor], radius)) {
+                    val moved = minOf(maxSize - sizes[target], sizes[donor])
+                    sizes[target] += moved
+                    sizes[donor] -= moved
+                }
+                donor--
+            }
+        }
 
-    private fun safelyMergeEntityGroup(
-        target: LivingEntity,
-        nearbyEntities: List<LivingEntity>,
-        processed: MutableSet<UUID>
-    ) {
-        (target as? StackDataProvider)?.takeIf { isValidForMerge(target) }?.let { stackTarget ->
-            try {
-                entityTracker[target.uuid] = EntityStatus.PROCESSING
-                var totalStack = stackTarget.getStackSizeCompat()
-                val maxSize = config.maxStackSize
-
-                nearbyEntities.asSequence()
-                    .takeWhile { totalStack < maxSize }
-                    .forEach { other ->
-                        (other as? StackDataProvider)?.takeIf { isValidForMerge(other) }?.let { stackOther ->
-                            val otherSize = stackOther.getStackSizeCompat()
-                            val potentialTotal = totalStack + otherSize
-
-                            when {
-                                potentialTotal <= maxSize -> {
-                                    // Can merge entire stack
-                                    entityTracker[other.uuid] = EntityStatus.PROCESSING
-                                    totalStack = potentialTotal
-                                    other.discard()
-                                    processed.add(other.uuid)
-                                    entityTracker.remove(other.uuid)
-                                }
-
-                                totalStack < maxSize -> {
-                                    // Can only merge part of the stack
-                                    entityTracker[other.uuid] = EntityStatus.PROCESSING
-                                    val spaceLeft = maxSize - totalStack
-                                    val remainingStack = otherSize - spaceLeft
-
-                                    // Update the target stack by adding only the available space
-                                    totalStack += spaceLeft
-
-                                    // Update the other stack with remaining entities
-                                    stackOther.setStackSizeCompat(remainingStack)
-                                    updateEntityDisplay(other)
-
-                                    processed.add(other.uuid)
-                                    entityTracker.remove(other.uuid)
-                                }
-                            }
-                        }
-                    }
+        for (i in cluster.indices) {
+            if (sizes[i] == initial[i]) continue
+            val entity = cluster[i]
+            if (sizes[i] == 0) {
+                entity.discard()
+                continue
+            }
 
-                stackTarget.setStackSizeCompat(totalStack)
-                stackTarget.setStackedCompat(true)
-                updateEntityDisplay(target)
-                entityTracker[target.uuid] = EntityStatus.STACKED
-                processed.add(target.uuid)
-            } finally {
-                entityTracker.remove(target.uuid)
+            val stackEntity = entity as StackDataProvider
+            stackEntity.setStackSizeCompat(sizes[i])
+            stackEntity.setStackedCompat(true)
+            updateEntityDisplay(entity)
+            if (sizes[i] > initial[i]) {
+                LagCutMetrics.stackMerges.incrementAndGet()
+                LagCutMetrics.entitiesAbsorbed.addAndGet((sizes[i] - initial[i]).toLong())
             }
         }
     }
 
+    // The same per-axis reach MergeClusters links by
+    private fun isInReach(a: Entity, b: Entity, radius: Double): Boolean =
+        abs(a.x - b.x) <= radius && abs(a.y - b.y) <= radius && abs(a.z - b.z) <= radius
+
     private fun updateEntityDisplay(entity: Entity, stackSize: Int? = null) {
         // If nametags are disabled, remove any existing nametags and return
         if (!config.enableNameTags) {
@@ -466,8 +462,7 @@ object EntityStackManager {
             try {
                 entity.apply {
                     customName = Text.of(KyoriHelper.stripFormatting(format))
-                    isCustomNameVisible = true
-                    setCustomNameVisible(true)
+                    NametagOcclusion.showName(this, config.hideNametagsThroughBlocks)
                     writeNbt(net.minecraft.nbt.NbtCompound().apply {
                         putBoolean("PersistenceRequired", false)
                     })
@@ -475,8 +470,7 @@ object EntityStackManager {
             } catch (e: Exception) {
                 entity.apply {
                     customName = Text.literal("${entity.type.name.string} x$size")
-                    isCustomNameVisible = true
-                    setCustomNameVisible(true)
+                    NametagOcclusion.showName(this, config.hideNametagsThroughBlocks)
                     writeNbt(net.minecraft.nbt.NbtCompound().apply {
                         putBoolean("PersistenceRequired", false)
                     })
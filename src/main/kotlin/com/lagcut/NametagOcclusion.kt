@@ -0,0 +1,337 @@
+package com.lagcut
+
+import com.lagcut.api.StackDataProvider
+import com.lagcut.mixin.EntityAccessor
+import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.objects.ObjectArrayList
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+import net.minecraft.entity.Entity
+import net.minecraft.entity.ItemEntity
+import net.minecraft.entity.data.DataTracker
+import net.minecraft.network.packet.s2c.play.EntityTrackerUpdateS2CPacket
+import net.minecraft.registry.RegistryKey
+import net.minecraft.server.network.ServerPlayerEntity
+import net.minecraft.server.world.ServerWorld
+import net.minecraft.util.hit.BlockHitResult
+import net.minecraft.util.hit.HitResult
+import net.minecraft.util.math.BlockPos
+import net.minecraft.util.math.Vec3d
+import net.minecraft.world.RaycastContext
+import net.minecraft.world.World
+
+/**
+ * Decides per player whether a stack nametag is visible through blocks.
+ *
+ * While `hideNametagsThroughBlocks` is on, the entity's shared custom-name-visible flag is
+ * left alone but stripped from everything its tracker broadcasts (see [filterTrackedData]),
+ * and each player that can actually see the entity gets a metadata packet that turns the name
+ * on for them only. Raycasts run under a per-world, per-tick budget; checks that do not fit
+ * wait for the next tick, ordered by how overdue they are and then by distance. The scan that
+ * finds due checks is bounded too: it covers a slice of the entity/player pairs per tick and
+ * resumes where it stopped. Results are reused through a [RaycastCache] while neither end
+ * changed block position.
+ */
+object NametagOcclusion {
+    private const val MAX_ITEM_DISTANCE_SQ = 500.0
+    private const val MAX_MOB_DISTANCE_SQ = 1000.0
+
+    // Recheck intervals in ticks; nearer names are refreshed more often
+    private const val NEAR_DISTANCE_SQ = 16.0 * 16.0
+    private const val NEAR_INTERVAL = 10L
+    private const val FAR_INTERVAL = 30L
+
+    // A pair whose entity or player moved to another block is rechecked this soon
+    private const val MOVED_INTERVAL = 2L
+
+    // Entity/player pairs looked at per tick, per raycast of budget
+    private const val SCAN_PAIRS_PER_RAYCAST = 16
+
+    private class ViewState {
+        var lastCheck = Long.MIN_VALUE
+        var entityPos = 0L
+        var playerPos = 0L
+        // Unknown until we first send it: the player may still show the shared flag from
+        // before the entity was managed
+        var visible: Boolean? = null
+    }
+
+    private class Subject(val entity: Entity) {
+        val viewers = Reference2ObjectOpenHashMap<ServerPlayerEntity, ViewState>()
+        var unloaded = false
+    }
+
+    // Pooled and refilled every tick, so finding due checks allocates nothing
+    private class Check {
+        lateinit var subject: Subject
+        lateinit var player: ServerPlayerEntity
+        lateinit var state: ViewState
+        var due = 0L
+        var distanceSq = 0.0
+    }
+
+    private class WorldSubjects {
+        val byEntity = Reference2ObjectOpenHashMap<Entity, Subject>()
+        val order = ObjectArrayList<Subject>()
+        var cursor = 0
+    }
+
+    private val checkOrder = compareBy<Check>({ it.due }, { it.distanceSq })
+
+    private val subjects = HashMap<RegistryKey<World>, WorldSubjects>()
+    private val pending = ObjectArrayList<Check>()
+    private val checkPool = ObjectArrayList<Check>()
+    private val raycastCaches = HashMap<RegistryKey<World>, RaycastCache>()
+
+    fun initialize() {
+        ServerTickEvents.END_WORLD_TICK.register { world ->
+            val started = LagCutProfiler.begin()
+            try {
+                tick(world)
+            } finally {
+                LagCutProfiler.end(LagCutProfiler.Section.NAMETAGS, started)
+            }
+        }
+        ServerEntityEvents.ENTITY_UNLOAD.register { entity, world ->
+            subjects[world.registryKey]?.byEntity?.remove(entity)?.unloaded = true
+        }
+    }
+
+    fun shutdown() {
+        subjects.clear()
+        pending.clear()
+        checkPool.clear()
+        raycastCaches.clear()
+    }
+
+    /**
+     * Starts (or keeps) per-player visibility handling for a named stack. From here on the
+     * shared flag is kept out of the entity's tracker updates, so players only see the name
+     * once a check has shown it to them.
+     */
+    fun watch(entity: Entity) {
+        val world = entity.world as? ServerWorld ?: return
+
+        var watched = subjects[world.registryKey]
+        if (watched == null) {
+            watched = WorldSubjects()
+            subjects[world.registryKey] = watched
+        }
+        if (!watched.byEntity.containsKey(entity)) {
+            val subject = Subject(entity)
+            watched.byEntity.put(entity, subject)
+            watched.order.add(subject)
+        }
+    }
+
+    fun isManaged(entity: Entity): Boolean =
+        subjects[entity.world.registryKey]?.byEntity?.containsKey(entity) == true
+
+    /**
+     * Drops the custom-name-visible entry from tracker updates of managed entities, both the
+     * periodic sync and the data sent when a player starts tracking. Changing the shared flag
+     * would otherwise reach every player on the next sync and override their own value.
+     */
+    @JvmStatic
+    fun filterTrackedData(entity: Entity, entries: List<DataTracker.SerializedEntry<*>>): List<DataTracker.SerializedEntry<*>> {
+        if (!isManaged(entity)) return entries
+        val nameVisible = EntityAccessor.getNameVisible().id
+        if (entries.none { it.id == nameVisible }) return entries
+        return entries.filter { it.id != nameVisible }
+    }
+
+    /**
+     * Shows a freshly (re)built stack name: to everyone when [hideThroughBlocks] is off,
+     * otherwise to the players whose checks, now due first, find it in view.
+     */
+    fun showName(entity: Entity, hideThroughBlocks: Boolean) {
+        if (!hideThroughBlocks) {
+            entity.isCustomNameVisible = true
+            return
+        }
+        watch(entity)
+        markChanged(entity)
+    }
+
+    /** Makes every player's check for [entity] due immediately, e.g. after its name changed. */
+    fun markChanged(entity: Entity) {
+        subjects[entity.world.registryKey]?.byEntity?.get(entity)?.viewers?.values?.forEach { it.lastCheck = Long.MIN_VALUE }
+    }
+
+    /** The client only knows what we last sent while it tracked the entity; start over. */
+    fun onTrackingChanged(entity: Entity, player: ServerPlayerEntity) {
+        subjects[entity.world.registryKey]?.byEntity?.get(entity)?.viewers?.remove(player)
+    }
+
+    private fun tick(world: ServerWorld) {
+        val watched = subjects[world.registryKey] ?: return
+        val order = watched.order
+        if (order.isEmpty) return
+
+        val now = world.time
+        val players = world.players
+        val budget = LagCutConfig.config.nametagRaycastBudget.coerceAtLeast(1)
+        val scanLimit = budget * SCAN_PAIRS_PER_RAYCAST
+        var scanned = 0
+        var visited = 0
+        val subjectCount = order.size
+
+        // Resume where the last tick stopped; pairs left out only grow more overdue
+        while (visited < subjectCount && scanned < scanLimit && order.isNotEmpty()) {
+            if (watched.cursor >= order.size) watched.cursor = 0
+            val subject = order[watched.cursor]
+            visited++
+
+            val entity = subject.entity
+            if (subject.unloaded || entity.isRemoved || entity.world !== world || !entity.hasCustomName() || !isHidingEnabled(entity)) {
+                release(watched, subject)
+                // The last subject was swapped into this slot; look at it next
+                order[watched.cursor] = order[order.size - 1]
+                order.removeAt(order.size - 1)
+                continue
+            }
+            watched.cursor++
+
+            subject.viewers.keys.removeIf { it.isRemoved || it.world !== world }
+            val target = targetPoint(entity)
+            val maxDistanceSq = if (entity is ItemEntity) MAX_ITEM_DISTANCE_SQ else MAX_MOB_DISTANCE_SQ
+
+            for (player in players) {
+                scanned++
+                var state = subject.viewers.get(player)
+                if (state == null) {
+                    state = ViewState()
+                    subject.viewers.put(player, state)
+                }
+
+                val distanceSq = player.getCameraPosVec(1.0f).squaredDistanceTo(target)
+                if (distanceSq > maxDistanceSq) {
+                    // Out of range never needs a raycast
+                    apply(entity, player, state, false)
+                    state.lastCheck = now
+                    continue
+                }
+
+                val due = when {
+                    state.lastCheck == Long.MIN_VALUE -> Long.MIN_VALUE
+                    state.entityPos != entity.blockPos.asLong() || state.playerPos != player.blockPos.asLong() ->
+                        state.lastCheck + MOVED_INTERVAL
+                    else -> state.lastCheck + if (distanceSq <= NEAR_DISTANCE_SQ) NEAR_INTERVAL else FAR_INTERVAL
+                }
+                if (due <= now) queue(subject, player, state, due, distanceSq)
+            }
+        }
+
+        val cache = raycastCache(world)
+        val ttl = LagCutConfig.config.nametagRaycastCacheTicks.toLong()
+        cache.prune(now, ttl)
+
+        if (pending.isEmpty) return
+        pending.sortWith(checkOrder)
+
+        // Cache hits are free; only real raycasts count against the budget
+        var raycasts = 0
+        for (i in 0 until pending.size) {
+            val check = pending[i]
+            val entity = check.subject.entity
+            val eye = BlockPos.ofFloored(check.player.getCameraPosVec(1.0f))
+            val target = BlockPos.ofFloored(targetPoint(entity))
+
+            val cached = if (ttl > 0) cache.get(eye, target, now, ttl) else -1
+            val visible = if (cached >= 0) {
+                cached == 1
+            } else {
+                if (raycasts >= budget) continue
+                raycasts++
+                isVisibleTo(entity, check.player).also { if (ttl > 0) cache.put(eye, target, it, now) }
+            }
+
+            check.state.lastCheck = now
+            check.state.entityPos = entity.blockPos.asLong()
+            check.state.playerPos = check.player.blockPos.asLong()
+            apply(entity, check.player, check.state, visible)
+        }
+        pending.clear()
+    }
+
+    private fun queue(subject: Subject, player: ServerPlayerEntity, state: ViewState, due: Long, distanceSq: Double) {
+        val index = pending.size
+        val check = if (index < checkPool.size) checkPool[index] else Check().also { checkPool.add(it) }
+        check.subject = subject
+        check.player = player
+        check.state = state
+        check.due = due
+        check.distanceSq = distanceSq
+        pending.add(check)
+    }
+
+    /**
+     * Stops managing [subject]. Players still tracking it get the shared flag back wherever
+     * their own value differs, e.g. when hideNametagsThroughBlocks was just turned off.
+     */
+    private fun release(watched: WorldSubjects, subject: Subject) {
+        val entity = subject.entity
+        if (watched.byEntity.get(entity) === subject) watched.byEntity.remove(entity)
+        if (subject.unloaded || entity.isRemoved) return
+
+        val shared = entity.isCustomNameVisible
+        for (entry in subject.viewers.reference2ObjectEntrySet()) {
+            val player = entry.key
+            if (!player.isRemoved && player.world === entity.world) apply(entity, player, entry.value, shared)
+        }
+    }
+
+    /** Called for every block change on the server; only stamps the chunk. */
+    fun onBlockChanged(world: ServerWorld, pos: BlockPos) {
+        raycastCaches[world.registryKey]?.onBlockChanged(pos, world.time)
+    }
+
+    private fun raycastCache(world: ServerWorld): RaycastCache {
+        var cache = raycastCaches[world.registryKey]
+        if (cache == null) {
+            cache = RaycastCache()
+            raycastCaches[world.registryKey] = cache
+        }
+        return cache
+    }
+
+    private fun isHidingEnabled(entity: Entity): Boolean {
+        val config = LagCutConfig.config
+        return if (entity is ItemEntity) {
+            config.itemStacking.hideNametagsThroughBlocks
+        } else {
+            entity is StackDataProvider && entity.isStackedCompat() && config.entityStacking.hideNametagsThroughBlocks
+        }
+    }
+
+    private fun targetPoint(entity: Entity): Vec3d =
+        Vec3d(entity.x, entity.y + entity.height / 2, entity.z)
+
+    private fun isVisibleTo(entity: Entity, player: ServerPlayerEntity): Boolean {
+        val hitResult = entity.world.raycast(
+            RaycastContext(
+                player.getCameraPosVec(1.0f),
+                targetPoint(entity),
+                RaycastContext.ShapeType.COLLIDER,
+                RaycastContext.FluidHandling.NONE,
+                player
+            )
+        )
+
+        return hitResult == null ||
+                hitResult.type == HitResult.Type.MISS ||
+                (hitResult is BlockHitResult && hitResult.blockPos == entity.blockPos)
+    }
+
+    private fun apply(entity: Entity, player: ServerPlayerEntity, state: ViewState, visible: Boolean) {
+        if (state.visible == visible) return
+        state.visible = visible
+        player.networkHandler.sendPacket(
+            EntityTrackerUpdateS2CPacket(
+                entity.id,
+                listOf(DataTracker.SerializedEntry.of(EntityAccessor.getNameVisible(), visible))
+            )
+        )
+    }
+}
@@ -0,0 +1,398 @@
+package com.lagcut
+
+import com.lagcut.api.StackDataProvider
+import com.lagcut.integration.CobblemonIntegration
+import net.minecraft.component.ComponentType
+import net.minecraft.entity.Entity
+import net.minecraft.entity.EntityType
+import net.minecraft.entity.ItemEntity
+import net.minecraft.entity.LivingEntity
+import net.minecraft.entity.mob.MobEntity
+import net.minecraft.entity.passive.PassiveEntity
+import net.minecraft.item.ItemStack
+import net.minecraft.nbt.AbstractNbtNumber
+import net.minecraft.nbt.NbtByte
+import net.minecraft.nbt.NbtCompound
+import net.minecraft.nbt.NbtElement
+import net.minecraft.nbt.NbtFloat
+import net.minecraft.nbt.NbtInt
+import net.minecraft.nbt.NbtList
+import net.minecraft.nbt.NbtOps
+import net.minecraft.nbt.NbtString
+import net.minecraft.registry.Registries
+import net.minecraft.registry.RegistryWrapper
+import net.minecraft.util.Identifier
+import org.slf4j.LoggerFactory
+
+/**
+ * Compiled form of an `nbtExclusionPatterns` list.
+ *
+ * Patterns that parse as a structured predicate (`Pokemon.Level>=100`, `CustomName exists`,
+ * `Item.components."minecraft:custom_name" ~ "Plush"`) are evaluated by reading only the
+ * referenced data straight from the entity, its stack components or its tracked data.
+ * Anything else is kept as a legacy substring pattern, which still needs the serialized NBT
+ * and is therefore only evaluated when at least one legacy pattern is configured.
+ */
+class NbtExclusionMatcher private constructor(
+    private val structured: List<NbtPredicate>,
+    private val legacy: List<String>
+) {
+    val isEmpty: Boolean
+        get() = structured.isEmpty() && legacy.isEmpty()
+
+    fun matches(entity: Entity): Boolean {
+        if (structured.isNotEmpty()) {
+            val subject = EntityNbtSubject(entity)
+            for (predicate in structured) {
+                if (predicate.test(subject)) return true
+            }
+        }
+        if (legacy.isEmpty()) return false
+
+        // Legacy fallback: substring search over the serialized entity
+        val nbtString = NbtCompound().also { entity.writeNbt(it) }.toString()
+        return legacy.any { nbtString.contains(it) }
+    }
+
+    companion object {
+        val EMPTY = NbtExclusionMatcher(emptyList(), emptyList())
+
+        private val logger = LoggerFactory.getLogger("LagCut")
+
+        // Pokémon keys older configs wrote at the root (the old default was "Level=100")
+        private val pokemonRootKeys = setOf("Level", "Shiny", "Species", "Nickname", "Friendship", "Gender", "Nature")
+
+        fun compile(patterns: List<String>): NbtExclusionMatcher {
+            val structured = mutableListOf<NbtPredicate>()
+            val legacy = mutableListOf<String>()
+            for (pattern in patterns) {
+                var predicate = NbtPredicate.parse(pattern)
+                if (predicate != null) {
+                    val root = predicate.path.first()
+                    if (root !in NbtPaths.roots && root in pokemonRootKeys) {
+                        predicate = predicate.under("Pokemon")
+                        logger.info("NBT exclusion pattern '$pattern' is read as 'Pokemon.${pattern.trim()}'; update your config to use the Pokemon. prefix")
+                    } else if (root !in NbtPaths.roots) {
+                        logger.warn("NBT exclusion pattern '$pattern' uses unknown root '$root' and will never match. Known roots: ${NbtPaths.roots.joinToString()}")
+                    }
+                    structured += predicate
+                } else {
+                    legacy += pattern
+                }
+            }
+            return if (structured.isEmpty() && legacy.isEmpty()) EMPTY else NbtExclusionMatcher(structured, legacy)
+        }
+    }
+}
+
+/**
+ * A single structured predicate: a dotted path, an operator and (for comparisons) a literal.
+ */
+class NbtPredicate(
+    val path: List<String>,
+    private val operator: Operator,
+    private val literal: String?,
+    private val number: Double?
+) {
+    enum class Operator(val symbol: String) {
+        EXISTS("exists"),
+        NOT_EXISTS("!exists"),
+        GREATER_OR_EQUAL(">="),
+        LESS_OR_EQUAL("<="),
+        NOT_EQUAL("!="),
+        EQUAL_STRICT("=="),
+        EQUAL("="),
+        GREATER(">"),
+        LESS("<"),
+        CONTAINS("~")
+    }
+
+    fun test(entity: Entity): Boolean = test(EntityNbtSubject(entity))
+
+    fun test(subject: NbtSubject): Boolean = test(NbtPaths.resolve(subject, path))
+
+    /** The same predicate with its path moved below [root]. */
+    fun under(root: String): NbtPredicate = NbtPredicate(listOf(root) + path, operator, literal, number)
+
+    fun test(element: NbtElement?): Boolean {
+        if (operator == Operator.NOT_EXISTS) return element == null
+        if (element == null) return false
+
+        return when (operator) {
+            Operator.EXISTS -> true
+            Operator.CONTAINS -> element.asString().contains(literal!!)
+            Operator.EQUAL, Operator.EQUAL_STRICT -> isEqual(element)
+            Operator.NOT_EQUAL -> !isEqual(element)
+            else -> {
+                val value = (element as? AbstractNbtNumber)?.doubleValue() ?: return false
+                val expected = number ?: return false
+                when (operator) {
+                    Operator.GREATER_OR_EQUAL -> value >= expected
+                    Operator.LESS_OR_EQUAL -> value <= expected
+                    Operator.GREATER -> value > expected
+                    Operator.LESS -> value < expected
+                    else -> false
+                }
+            }
+        }
+    }
+
+    private fun isEqual(element: NbtElement): Boolean =
+        if (element is AbstractNbtNumber && number != null) {
+            element.doubleValue() == number
+        } else {
+            element.asString() == literal
+        }
+
+    companion object {
+        // Longest symbols first so that ">=" is not read as ">"
+        private val comparisonOperators = Operator.entries
+            .filter { it != Operator.EXISTS && it != Operator.NOT_EXISTS }
+            .sortedByDescending { it.symbol.length }
+
+        /**
+         * Parses `path op literal`, `path exists` or `path !exists`.
+         * Returns null when the pattern is not a structured predicate.
+         */
+        fun parse(pattern: String): NbtPredicate? {
+            val text = pattern.trim()
+            var index = 0
+            val path = mutableListOf<String>()
+
+            // Path: segments separated by '.', each either bare or "quoted"
+            while (true) {
+                if (index >= text.length) return null
+                if (text[index] == '"') {
+                    val end = text.indexOf('"', index + 1)
+                    if (end < 0) return null
+                    path += text.substring(index + 1, end)
+                    index = end + 1
+                } else {
+                    val start = index
+                    while (index < text.length && isBareChar(text[index])) index++
+                    if (index == start) return null
+                    path += text.substring(start, index)
+                }
+                if (index < text.length && text[index] == '.') {
+                    index++
+                    continue
+                }
+                break
+            }
+
+            val rest = text.substring(index).trim()
+            when (rest) {
+                "exists" -> return NbtPredicate(path, Operator.EXISTS, null, null)
+                "!exists" -> return NbtPredicate(path, Operator.NOT_EXISTS, null, null)
+            }
+
+            val operator = comparisonOperators.firstOrNull { rest.startsWith(it.symbol) } ?: return null
+            val rawLiteral = rest.substring(operator.symbol.length).trim()
+            if (rawLiteral.isEmpty()) return null
+
+            val literal = if (rawLiteral.length >= 2 && rawLiteral.startsWith('"') && rawLiteral.endsWith('"')) {
+                rawLiteral.substring(1, rawLiteral.length - 1)
+            } else {
+                // Bare literals must be a single token, otherwise this is most likely a legacy pattern
+                if (rawLiteral.any { it.isWhitespace() }) return null
+                rawLiteral
+            }
+
+            val number = when (literal) {
+                "true" -> 1.0
+                "false" -> 0.0
+                else -> literal.removeSuffix("b").removeSuffix("s").removeSuffix("L")
+                    .removeSuffix("f").removeSuffix("d").toDoubleOrNull()
+            }
+            return NbtPredicate(path, operator, literal, number)
+        }
+
+        private fun isBareChar(c: Char): Boolean =
+            c.isLetterOrDigit() || c == '_' || c == '-' || c == ':'
+    }
+}
+
+/**
+ * The entity state that structured predicates can read, one property per path root.
+ * Properties are null where the entity has no such state (`Health` of an item, say).
+ */
+interface NbtSubject {
+    val typeId: String
+    val customName: String?
+    val commandTags: Collection<String>
+    val health: Float?
+    val age: Int?
+    val persistent: Boolean?
+    val aiDisabled: Boolean?
+    val invulnerable: Boolean
+    val silent: Boolean
+    val noGravity: Boolean
+    val glowing: Boolean
+    val onGround: Boolean
+    val stackSize: Int?
+    val isStacked: Boolean
+    val itemStack: ItemStack?
+    val registries: RegistryWrapper.WrapperLookup
+    val pokemon: PokemonNbtView?
+}
+
+/** The Pokémon fields `Pokemon.<key>` reads directly, and the serialized form for the rest. */
+interface PokemonNbtView {
+    val level: Int
+    val shiny: Boolean
+    val species: String
+    val nickname: String?
+    val friendship: Int
+    val gender: String
+    val nature: String
+
+    fun serialize(): NbtCompound
+}
+
+/** [NbtSubject] over a live entity; every property reads the entity when asked. */
+class EntityNbtSubject(private val entity: Entity) : NbtSubject {
+    override val typeId: String
+        get() = EntityType.getId(entity.type).toString()
+    override val customName: String?
+        get() = entity.customName?.string
+    override val commandTags: Collection<String>
+        get() = entity.commandTags
+    override val health: Float?
+        get() = (entity as? LivingEntity)?.health
+    override val age: Int?
+        get() = when (entity) {
+            is ItemEntity -> entity.itemAge
+            is PassiveEntity -> entity.breedingAge
+            else -> null
+        }
+    override val persistent: Boolean?
+        get() = (entity as? MobEntity)?.isPersistent
+    override val aiDisabled: Boolean?
+        get() = (entity as? MobEntity)?.isAiDisabled
+    override val invulnerable: Boolean
+        get() = entity.isInvulnerable
+    override val silent: Boolean
+        get() = entity.isSilent
+    override val noGravity: Boolean
+        get() = entity.hasNoGravity()
+    override val glowing: Boolean
+        get() = entity.isGlowing
+    override val onGround: Boolean
+        get() = entity.isOnGround
+    override val stackSize: Int?
+        get() = (entity as? StackDataProvider)?.getStackSizeCompat()
+    override val isStacked: Boolean
+        get() = (entity as? StackDataProvider)?.isStackedCompat() ?: false
+    override val itemStack: ItemStack?
+        get() = (entity as? ItemEntity)?.stack
+    override val registries: RegistryWrapper.WrapperLookup
+        get() = entity.registryManager
+    override val pokemon: PokemonNbtView?
+        get() = if (Lagcut.isCobblemonPresent) CobblemonIntegration.pokemonView(entity) else null
+}
+
+/**
+ * Resolves predicate paths against an [NbtSubject]. Each root reads only what it needs;
+ * nothing here ever serializes a whole entity.
+ */
+internal object NbtPaths {
+    private fun interface RootResolver {
+        fun resolve(subject: NbtSubject, path: List<String>): NbtElement?
+    }
+
+    private val resolvers: Map<String, RootResolver> = mapOf(
+        "id" to RootResolver { subject, _ -> NbtString.of(subject.typeId) },
+        "CustomName" to RootResolver { subject, _ -> subject.customName?.let { NbtString.of(it) } },
+        "Tags" to RootResolver { subject, path ->
+            val tags = NbtList()
+            subject.commandTags.forEach { tags.add(NbtString.of(it)) }
+            walk(tags, path, 1)
+        },
+        "Health" to RootResolver { subject, _ -> subject.health?.let { NbtFloat.of(it) } },
+        "Age" to RootResolver { subject, _ -> subject.age?.let { NbtInt.of(it) } },
+        "PersistenceRequired" to RootResolver { subject, _ -> subject.persistent?.let { NbtByte.of(it) } },
+        "NoAI" to RootResolver { subject, _ -> subject.aiDisabled?.let { NbtByte.of(it) } },
+        "Invulnerable" to RootResolver { subject, _ -> NbtByte.of(subject.invulnerable) },
+        "Silent" to RootResolver { subject, _ -> NbtByte.of(subject.silent) },
+        "NoGravity" to RootResolver { subject, _ -> NbtByte.of(subject.noGravity) },
+        "Glowing" to RootResolver { subject, _ -> NbtByte.of(subject.glowing) },
+        "OnGround" to RootResolver { subject, _ -> NbtByte.of(subject.onGround) },
+        "EntityStackData" to RootResolver { subject, path ->
+            val size = subject.stackSize ?: return@RootResolver null
+            if (!subject.isStacked && size == 1) return@RootResolver null
+            val data = NbtCompound().apply {
+                putInt("StackSize", size)
+                putBoolean("IsStacked", subject.isStacked)
+            }
+            walk(data, path, 1)
+        },
+        "Item" to RootResolver { subject, path -> subject.itemStack?.let { resolveItem(it, subject.registries, path) } },
+        "Pokemon" to RootResolver { subject, path -> subject.pokemon?.let { resolvePokemon(it, path) } }
+    )
+
+    val roots: Set<String>
+        get() = resolvers.keys
+
+    fun resolve(subject: NbtSubject, path: List<String>): NbtElement? =
+        resolvers[path.first()]?.resolve(subject, path)
+
+    /**
+     * Walks [path] starting at segment [from] through compounds (by key) and lists (by index).
+     */
+    fun walk(root: NbtElement?, path: List<String>, from: Int): NbtElement? {
+        var current = root
+        for (i in from until path.size) {
+            current = when (current) {
+                is NbtCompound -> current.get(path[i])
+                is NbtList -> path[i].toIntOrNull()?.takeIf { it in 0 until current.size }?.let { current[it] }
+                else -> null
+            } ?: return null
+        }
+        return current
+    }
+
+    // Item.id, Item.count, Item.components.<component id>[.<path>]
+    private fun resolveItem(stack: ItemStack, registries: RegistryWrapper.WrapperLookup, path: List<String>): NbtElement? {
+        if (stack.isEmpty) return null
+        if (path.size == 1) return stack.encode(registries)
+
+        return when (path[1]) {
+            "id" -> NbtString.of(Registries.ITEM.getId(stack.item).toString())
+            "count" -> NbtInt.of(stack.count)
+            "components" -> {
+                if (path.size == 2) {
+                    return (stack.encode(registries) as? NbtCompound)?.get("components")
+                }
+                val id = Identifier.tryParse(path[2]) ?: return null
+                @Suppress("UNCHECKED_CAST")
+                val type = Registries.DATA_COMPONENT_TYPE.get(id) as? ComponentType<Any> ?: return null
+                walk(encodeComponent(stack, registries, type), path, 3)
+            }
+            else -> null
+        }
+    }
+
+    private fun encodeComponent(stack: ItemStack, registries: RegistryWrapper.WrapperLookup, type: ComponentType<Any>): NbtElement? {
+        val value = stack.get(type) ?: return null
+        val codec = type.codec ?: return null
+        return codec.encodeStart(registries.getOps(NbtOps.INSTANCE), value).result().orElse(null)
+    }
+
+    // Pokemon.<key>[.<path>]: common keys come straight from the Pokémon, other keys from its
+    // serialized form (never the entity's)
+    private fun resolvePokemon(pokemon: PokemonNbtView, path: List<String>): NbtElement? {
+        if (path.size == 1) return pokemon.serialize()
+
+        val direct: NbtElement? = when (path[1]) {
+            "Level" -> NbtInt.of(pokemon.level)
+            "Shiny" -> NbtByte.of(pokemon.shiny)
+            "Species" -> NbtString.of(pokemon.species)
+            "Nickname" -> pokemon.nickname?.let { NbtString.of(it) }
+            "Friendship" -> NbtInt.of(pokemon.friendship)
+            "Gender" -> NbtString.of(pokemon.gender)
+            "Nature" -> NbtString.of(pokemon.nature)
+            else -> return walk(pokemon.serialize(), path, 1)
+        }
+        return walk(direct, path, 2)
+    }
+}
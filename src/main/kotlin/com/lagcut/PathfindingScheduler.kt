@@ -0,0 +1,184 @@
+package com.lagcut
+
+import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.objects.ObjectArrayList
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents
+import net.minecraft.entity.mob.MobEntity
+import net.minecraft.server.world.ServerWorld
+
+/**
+ * Per-world admission control for path computations.
+ *
+ * Each world admits at most `maxPathfindsPerTick` searches and `pathfindBudgetMicros` of
+ * search time per tick. A denied mob gets no path (its goal simply retries) and is put on
+ * the world's wait list. At the start of every tick the waiting mobs are ranked by combat
+ * state, distance to the nearest player and how long they have waited, and the best ones
+ * get reserved slots, so aging guarantees that every waiting mob is eventually admitted.
+ * A reservation lapses once its mob has ticked without asking, so the slot goes back to
+ * everyone else for the rest of the tick.
+ */
+object PathfindingScheduler {
+    // Priority weights: one tick of waiting is worth this many blocks of distance
+    private const val AGING_WEIGHT = 4.0
+    private const val COMBAT_BONUS = 200.0
+
+    // Waiters that stopped asking for a path are dropped after this many ticks
+    private const val STALE_TICKS = 40L
+
+    private class Waiter(val mob: MobEntity, val since: Long) {
+        var lastRequest = since
+        var priority = 0.0
+        // The mob's age when its slot was reserved; it counts up as soon as the mob's tick starts
+        var reservedAge = 0
+    }
+
+    private class WorldQueue {
+        val waiting = Int2ObjectOpenHashMap<Waiter>()
+        val reserved = Int2ObjectOpenHashMap<Waiter>()
+        val ranking = ObjectArrayList<Waiter>()
+        var admitted = 0
+        var nanos = 0L
+
+        // Running totals since the last stats reset
+        var totalAdmitted = 0L
+        var totalDenied = 0L
+        var totalWaitTicks = 0L
+        var admittedAfterWait = 0L
+        var maxWaitTicks = 0L
+    }
+
+    private val queues = Reference2ObjectOpenHashMap<ServerWorld, WorldQueue>()
+    private val byPriority = compareByDescending<Waiter> { it.priority }
+
+    fun initialize() {
+        ServerTickEvents.START_WORLD_TICK.register { world -> onWorldTickStart(world) }
+    }
+
+    fun shutdown() {
+        queues.clear()
+    }
+
+    /**
+     * Called before a path search. Returns false when the search has to wait for a later tick.
+     */
+    @JvmStatic
+    fun tryAdmit(mob: MobEntity): Boolean {
+        val settings = LagCutConfig.config.aiThrottling
+        if (!settings.enabled || !settings.pathfindingBudget) return true
+        val world = mob.world as? ServerWorld ?: return true
+        val queue = queue(world)
+        val now = world.time
+
+        val cap = (settings.maxPathfindsPerTick / AIThrottleController.intervalScale).coerceAtLeast(1)
+        val timeLeft = queue.admitted == 0 || queue.nanos < settings.pathfindBudgetMicros * 1000L
+        val id = mob.id
+
+        val admit = if (queue.reserved.remove(id) != null) {
+            timeLeft
+        } else if (!timeLeft) {
+            false
+        } else {
+            // Unreserved requests may only use slots that a reserved waiter can still claim this tick
+            if (queue.admitted + queue.reserved.size >= cap) expireReservations(queue)
+            queue.admitted + queue.reserved.size < cap
+        }
+
+        if (admit) {
+            queue.admitted++
+            queue.totalAdmitted++
+            queue.waiting.remove(id)?.let { waiter ->
+                val waited = now - waiter.since
+                queue.totalWaitTicks += waited
+                queue.admittedAfterWait++
+                if (waited > queue.maxWaitTicks) queue.maxWaitTicks = waited
+            }
+        } else {
+            queue.totalDenied++
+            val waiter = queue.waiting.get(id)
+            if (waiter == null) {
+                queue.waiting.put(id, Waiter(mob, now))
+            } else {
+                waiter.lastRequest = now
+            }
+        }
+        return admit
+    }
+
+    /** Called after an admitted search finished, with the time it took. */
+    @JvmStatic
+    fun onPathComputed(mob: MobEntity, nanos: Long) {
+        val world = mob.world as? ServerWorld ?: return
+        queues.get(world)?.let { it.nanos += nanos }
+    }
+
+    private fun onWorldTickStart(world: ServerWorld) {
+        val queue = queues.get(world) ?: return
+        queue.admitted = 0
+        queue.nanos = 0L
+        queue.reserved.clear()
+        if (queue.waiting.isEmpty()) return
+
+        val now = world.time
+        val ranking = queue.ranking
+        val iterator = queue.waiting.values.iterator()
+        while (iterator.hasNext()) {
+            val waiter = iterator.next()
+            val mob = waiter.mob
+            if (mob.isRemoved || mob.world !== world || now - waiter.lastRequest > STALE_TICKS) {
+                iterator.remove()
+                continue
+            }
+
+            val nearest = world.getClosestPlayer(mob, -1.0)
+            val distance = if (nearest != null) Math.sqrt(nearest.squaredDistanceTo(mob)) else 1000.0
+            val inCombat = mob.target != null || mob.attacker != null
+            waiter.priority = (now - waiter.since) * AGING_WEIGHT - distance + if (inCombat) COMBAT_BONUS else 0.0
+            ranking.add(waiter)
+        }
+
+        val settings = LagCutConfig.config.aiThrottling
+        val cap = (settings.maxPathfindsPerTick / AIThrottleController.intervalScale).coerceAtLeast(1)
+        ranking.sortWith(byPriority)
+        for (i in 0 until minOf(cap, ranking.size)) {
+            val waiter = ranking[i]
+            waiter.reservedAge = waiter.mob.age
+            queue.reserved.put(waiter.mob.id, waiter)
+        }
+        ranking.clear()
+    }
+
+    // Drops the reservations of mobs whose tick has already passed this tick without asking
+    // (their goal changed or they were unloaded); they stay on the wait list for the next ranking
+    private fun expireReservations(queue: WorldQueue) {
+        val iterator = queue.reserved.values.iterator()
+        while (iterator.hasNext()) {
+            val waiter = iterator.next()
+            if (waiter.mob.isRemoved || waiter.mob.age != waiter.reservedAge) iterator.remove()
+        }
+    }
+
+    private fun queue(world: ServerWorld): WorldQueue {
+        var queue = queues.get(world)
+        if (queue == null) {
+            queue = WorldQueue()
+            queues.put(world, queue)
+        }
+        return queue
+    }
+
+    /**
+     * One line per world: current queue depth, admissions, denials and waiting times.
+     */
+    fun getStatusLines(): List<String> =
+        queues.entries.map { (world, queue) ->
+            val averageWait = if (queue.admittedAfterWait > 0) {
+                queue.totalWaitTicks.toDouble() / queue.admittedAfterWait
+            } else {
+                0.0
+            }
+            "${world.registryKey.value}: queued ${queue.waiting.size}, admitted ${queue.totalAdmitted}, " +
+                    "deferred ${queue.totalDenied}, avg wait %.1f ticks, max wait ${queue.maxWaitTicks} ticks".format(averageWait)
+        }
+}
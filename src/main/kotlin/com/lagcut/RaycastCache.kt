@@ -0,0 +1,84 @@
+package com.lagcut
+
+import it.unimi.dsi.fastutil.HashCommon
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import net.minecraft.util.math.BlockPos
+import net.minecraft.util.math.ChunkPos
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Line-of-sight results for one world, keyed by the (eye block, target block) pair.
+ *
+ * An entry stays valid until it is older than the TTL or a block changed in any chunk of
+ * the rectangle spanned by the two positions, which covers every chunk the ray can cross.
+ * Block changes only stamp their chunk with the world time; nothing is scanned eagerly.
+ */
+class RaycastCache {
+    private class Entry(
+        val eye: Long,
+        val target: Long,
+        val visible: Boolean,
+        val time: Long
+    )
+
+    private val entries = Long2ObjectOpenHashMap<Entry>()
+    private val chunkChanges = Long2LongOpenHashMap().apply { defaultReturnValue(Long.MIN_VALUE) }
+    private var lastPrune = 0L
+
+    /**
+     * Returns the cached verdict (1 visible, 0 hidden) or -1 when it has to be recomputed.
+     */
+    fun get(eye: BlockPos, target: BlockPos, now: Long, ttl: Long): Int {
+        val eyeKey = eye.asLong()
+        val targetKey = target.asLong()
+        val entry = entries.get(key(eyeKey, targetKey)) ?: return -1
+        if (entry.eye != eyeKey || entry.target != targetKey) return -1
+        if (now - entry.time > ttl || changedSince(eye, target, entry.time)) return -1
+        return if (entry.visible) 1 else 0
+    }
+
+    fun put(eye: BlockPos, target: BlockPos, visible: Boolean, now: Long) {
+        val eyeKey = eye.asLong()
+        val targetKey = target.asLong()
+        entries.put(key(eyeKey, targetKey), Entry(eyeKey, targetKey, visible, now))
+    }
+
+    fun onBlockChanged(pos: BlockPos, now: Long) {
+        chunkChanges.put(ChunkPos.toLong(pos.x shr 4, pos.z shr 4), now)
+    }
+
+    /**
+     * Drops expired entries and change stamps that can no longer invalidate anything.
+     * Cheap enough to call every tick; it only does work once per TTL.
+     */
+    fun prune(now: Long, ttl: Long) {
+        if (now - lastPrune < ttl) return
+        lastPrune = now
+        entries.values.removeIf { now - it.time > ttl }
+        val changes = chunkChanges.long2LongEntrySet().fastIterator()
+        while (changes.hasNext()) {
+            if (now - changes.next().longValue > ttl) changes.remove()
+        }
+    }
+
+    private fun changedSince(eye: BlockPos, target: BlockPos, time: Long): Boolean {
+        if (chunkChanges.isEmpty()) return false
+        val minX = min(eye.x, target.x) shr 4
+        val maxX = max(eye.x, target.x) shr 4
+        val minZ = min(eye.z, target.z) shr 4
+        val maxZ = max(eye.z, target.z) shr 4
+        for (cx in minX..maxX) {
+            for (cz in minZ..maxZ) {
+                // A change in the same tick as the raycast may have happened after it
+                if (chunkChanges.get(ChunkPos.toLong(cx, cz)) >= time) return true
+            }
+        }
+        return false
+    }
+
+    // Collisions are resolved by comparing the stored positions
+    private fun key(eye: Long, target: Long): Long =
+        HashCommon.mix(eye) * 31 + target
+}
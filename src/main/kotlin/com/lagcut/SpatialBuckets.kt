@@ -0,0 +1,79 @@
+package com.lagcut
+
+import it.unimi.dsi.fastutil.HashCommon
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.objects.ObjectArrayList
+import net.minecraft.util.math.BlockPos
+import kotlin.math.floor
+
+/**
+ * Spatial hash buckets keyed by (cell, type id, fingerprint).
+ *
+ * Values that may merge share a type and fingerprint, so each lookup only sees real
+ * candidates; with a cell at least as large as the merge distance, every partner of a value
+ * lies in the 3x3x3 cells around its own. Holds no game state.
+ */
+class SpatialBuckets<T> {
+    private val buckets = Long2ObjectOpenHashMap<ObjectArrayList<T>>()
+
+    val isEmpty: Boolean
+        get() = buckets.isEmpty()
+
+    fun add(key: Long, value: T) {
+        var entries = buckets.get(key)
+        if (entries == null) {
+            entries = ObjectArrayList()
+            buckets.put(key, entries)
+        }
+        entries.add(value)
+    }
+
+    fun remove(key: Long, value: T) {
+        val entries = buckets.get(key) ?: return
+        entries.remove(value)
+        if (entries.isEmpty) buckets.remove(key)
+    }
+
+    fun get(key: Long): List<T>? = buckets.get(key)
+
+    fun clear() {
+        buckets.clear()
+    }
+
+    /**
+     * Calls [action] for every value in the 27 buckets around [cell] that share [typeId] and
+     * [fingerprint], the value's own bucket included.
+     */
+    inline fun forEachNear(cell: Long, typeId: Int, fingerprint: Long, action: (T) -> Unit) {
+        val cx = BlockPos.unpackLongX(cell)
+        val cy = BlockPos.unpackLongY(cell)
+        val cz = BlockPos.unpackLongZ(cell)
+        for (dx in -1..1) {
+            for (dy in -1..1) {
+                for (dz in -1..1) {
+                    val entries = get(bucketKey(BlockPos.asLong(cx + dx, cy + dy, cz + dz), typeId, fingerprint)) ?: continue
+                    for (i in entries.indices) action(entries[i])
+                }
+            }
+        }
+    }
+
+    companion object {
+        @JvmStatic
+        fun cellOf(x: Double, y: Double, z: Double, cellSize: Double): Long =
+            BlockPos.asLong(
+                floor(x / cellSize).toInt(),
+                floor(y / cellSize).toInt(),
+                floor(z / cellSize).toInt()
+            )
+
+        // Cell and type are mixed apart: a packed BlockPos keeps Y in its low bits, so adding
+        // the type id would make (y + 1, type) and (y, type + 1) collide every time. Collisions
+        // left only add candidates that the caller's exact checks reject.
+        @JvmStatic
+        fun bucketKey(cell: Long, typeId: Int, fingerprint: Long): Long =
+            HashCommon.mix(HashCommon.mix(cell) xor HashCommon.mix(typeId.toLong() * TYPE_MULTIPLIER) xor fingerprint)
+
+        private const val TYPE_MULTIPLIER = -0x61c8864680b583ebL
+    }
+}
@@ -0,0 +1,135 @@
+package com.lagcut.integration
+
+import com.blanketutils.utils.logDebug
+import com.cobblemon.mod.common.entity.pokemon.PokemonEntity
+import com.cobblemon.mod.common.pokemon.FormData
+import com.cobblemon.mod.common.pokemon.Pokemon
+import com.cobblemon.mod.common.pokemon.Species
+import com.lagcut.ExclusionRules
+import com.lagcut.PokemonNbtView
+import com.lagcut.utils.LagCutConfig
+import it.unimi.dsi.fastutil.objects.Reference2BooleanOpenHashMap
+import net.minecraft.entity.Entity
+import net.minecraft.nbt.NbtCompound
+
+/**
+ * Direct (non-reflective) access to Cobblemon types.
+ *
+ * This object is the only place that links against Cobblemon classes, so it must only be
+ * touched after checking [com.lagcut.Lagcut.isCobblemonPresent].
+ */
+object CobblemonIntegration {
+    // ClearLag verdicts per species (blocklist) and per form (labels), dropped on config reload
+    private val blocklistedSpecies = Reference2BooleanOpenHashMap<Species>()
+    private val labelledForms = Reference2BooleanOpenHashMap<FormData>()
+    private var verdictEpoch = -1
+
+    fun isPokemon(entity: Entity): Boolean = entity is PokemonEntity
+
+    /**
+     * Whether ClearLag has to keep this Pokémon: its species is blocklisted, its form carries
+     * one of the excluded labels, or it is in a battle.
+     */
+    fun shouldPreserveFromClear(entity: Entity, excludedLabels: List<String>): Boolean {
+        val pokemonEntity = entity as? PokemonEntity ?: return false
+        val pokemon = pokemonEntity.pokemon
+        if (verdictEpoch != LagCutConfig.epoch) {
+            blocklistedSpecies.clear()
+            labelledForms.clear()
+            verdictEpoch = LagCutConfig.epoch
+        }
+
+        val species = pokemon.species
+        val blocklisted = if (blocklistedSpecies.containsKey(species)) {
+            blocklistedSpecies.getBoolean(species)
+        } else {
+            ExclusionRules.isPokemonBlocklisted(species.name).also { blocklistedSpecies.put(species, it) }
+        }
+        if (blocklisted) {
+            logDebug("[DEBUG] Pokemon ${species.name} is in blocklist", "lagcut")
+            return true
+        }
+
+        val form = pokemon.form
+        val labelled = if (labelledForms.containsKey(form)) {
+            labelledForms.getBoolean(form)
+        } else {
+            form.labels.any { label -> excludedLabels.any { it.equals(label, ignoreCase = true) } }
+                .also { labelledForms.put(form, it) }
+        }
+        if (labelled) {
+            logDebug("[DEBUG] Preserving ${species.name} due to labels", "lagcut")
+            return true
+        }
+
+        if (pokemonEntity.isBattling) {
+            logDebug("[DEBUG] Preserving battling Pokemon", "lagcut")
+            return true
+        }
+        return false
+    }
+
+    /** How AI throttling should treat an entity, as far as Cobblemon is concerned. */
+    enum class PokemonAIState { NOT_POKEMON, EXEMPT, WILD_ACTIVE, WILD_IDLE }
+
+    /**
+     * Battling, owned and sent-out Pokémon are never throttled. Wild Pokémon count as idle
+     * while they have no target, nobody attacked them and they are not busy.
+     */
+    fun getAIState(entity: Entity): PokemonAIState {
+        val pokemonEntity = entity as? PokemonEntity ?: return PokemonAIState.NOT_POKEMON
+        if (pokemonEntity.isBattling || pokemonEntity.ownerUuid != null || !pokemonEntity.pokemon.isWild()) {
+            return PokemonAIState.EXEMPT
+        }
+        return if (pokemonEntity.target == null && pokemonEntity.attacker == null && !pokemonEntity.isBusy) {
+            PokemonAIState.WILD_IDLE
+        } else {
+            PokemonAIState.WILD_ACTIVE
+        }
+    }
+
+    /**
+     * The Pokémon behind a `Pokemon.<key>...` predicate path, or null for other entities.
+     * Its serialized form is built once per Pokémon and tick however many predicates ask for it.
+     */
+    fun pokemonView(entity: Entity): PokemonNbtView? {
+        val pokemon = (entity as? PokemonEntity)?.pokemon ?: return null
+        return EntityPokemonView(entity, pokemon)
+    }
+
+    private class EntityPokemonView(private val entity: Entity, private val pokemon: Pokemon) : PokemonNbtView {
+        override val level: Int
+            get() = pokemon.level
+        override val shiny: Boolean
+            get() = pokemon.shiny
+        override val species: String
+            get() = pokemon.species.resourceIdentifier.toString()
+        override val nickname: String?
+            get() = pokemon.nickname?.string
+        override val friendship: Int
+            get() = pokemon.friendship
+        override val gender: String
+            get() = pokemon.gender.name
+        override val nature: String
+            get() = pokemon.nature.name.toString()
+
+        override fun serialize(): NbtCompound = serialized(entity, pokemon)
+    }
+
+    // Single-slot cache: exclusion checks test every predicate of a list against one entity in a row
+    private var serializedPokemon: Pokemon? = null
+    private var serializedTime = Long.MIN_VALUE
+    private var serializedNbt: NbtCompound? = null
+
+    private fun serialized(entity: Entity, pokemon: Pokemon): NbtCompound {
+        val time = entity.world.time
+        val cached = serializedNbt
+        if (cached != null && serializedPokemon === pokemon && serializedTime == time) return cached
+
+        val nbt = pokemon.saveToNBT(entity.registryManager, NbtCompound())
+        serializedPokemon = pokemon
+        serializedTime = time
+        serializedNbt = nbt
+        return nbt
+    }
+}
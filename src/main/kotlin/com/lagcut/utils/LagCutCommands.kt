@@ -2,20 +2,33 @@ package com.lagcut.utils
 
 import com.blanketutils.command.CommandManager
 import com.blanketutils.utils.logDebug
+import com.lagcut.AIThrottleController
 import com.lagcut.ClearLag
+import com.lagcut.DensityIndex
 import com.lagcut.EntityStackManager
+import com.lagcut.ExclusionRules
 import com.lagcut.ItemStackingManager
+import com.lagcut.LagCutProfiler
+import com.lagcut.MetricsExporter
+import com.lagcut.PathfindingScheduler
 import com.lagcut.api.TPSTracker
+import com.mojang.brigadier.arguments.IntegerArgumentType
 import com.mojang.brigadier.context.CommandContext
+import net.minecraft.command.argument.DimensionArgumentType
+import net.minecraft.entity.EntityType
 import net.minecraft.server.command.ServerCommandSource
+import net.minecraft.server.world.ServerWorld
+import net.minecraft.util.math.ChunkPos
 import net.minecraft.text.Text
 import net.minecraft.nbt.NbtCompound
 import org.slf4j.LoggerFactory
 import java.util.function.Supplier
+import net.minecraft.server.command.CommandManager as McCommandManager
 
 object CommandRegistrar {
     private val logger = LoggerFactory.getLogger("CommandRegistrar")
     private val manager = CommandManager("lagcut")
+    private const val DEFAULT_HEATMAP_ROWS = 10
 
     fun registerCommands() {
         manager.command("lagcut", aliases = listOf("lc")) {
@@ -38,6 +51,49 @@ object CommandRegistrar {
                 executes { context -> executeTPSCommand(context) }
             }
 
+            // AI throttling status
+            subcommand("ai", permission = "lagcut.ai") {
+                executes { context -> executeAICommand(context) }
+            }
+
+            // Profiler for LagCut's own tick cost
+            subcommand("profile", permission = "lagcut.profile") {
+                executes { context -> executeProfileCommand(context, "report") }
+
+                subcommand("start", permission = "lagcut.profile") {
+                    executes { context -> executeProfileCommand(context, "start") }
+                }
+
+                subcommand("stop", permission = "lagcut.profile") {
+                    executes { context -> executeProfileCommand(context, "stop") }
+                }
+
+                subcommand("report", permission = "lagcut.profile") {
+                    executes { context -> executeProfileCommand(context, "report") }
+                }
+            }
+
+            // Entity density per chunk
+            subcommand("heatmap", permission = "lagcut.heatmap") {
+                executes { context -> executeHeatmapCommand(context, context.source.world, DEFAULT_HEATMAP_ROWS) }
+                then(
+                    McCommandManager.argument("world", DimensionArgumentType.dimension())
+                        .executes { context ->
+                            executeHeatmapCommand(context, DimensionArgumentType.getDimensionArgument(context, "world"), DEFAULT_HEATMAP_ROWS)
+                        }
+                        .then(
+                            McCommandManager.argument("top", IntegerArgumentType.integer(1, 100))
+                                .executes { context ->
+                                    executeHeatmapCommand(
+                                        context,
+                                        DimensionArgumentType.getDimensionArgument(context, "world"),
+                                        IntegerArgumentType.getInteger(context, "top")
+                                    )
+                                }
+                        )
+                )
+            }
+
             // Clear command with subcommands
             subcommand("clear", permission = "lagcut.clear") {
                 executes { context -> executeConfiguredClearCommand(context) }
@@ -79,9 +135,11 @@ object CommandRegistrar {
             LagCutConfig.reloadBlocking()
 
             if (LagCutConfig.config.version.isNotBlank()) {
+                ExclusionRules.rebuild(source.server)
                 EntityStackManager.reinitialize()
                 ClearLag.reinitialize()
                 ItemStackingManager.reinitialize()
+                MetricsExporter.reinitialize(source.server)
 
                 CommandManager.sendSuccess(source, "§aLagCut configuration successfully reloaded!", true)
                 logDebug("Configuration reloaded successfully.", "lagcut")
@@ -211,6 +269,93 @@ object CommandRegistrar {
         return 1
     }
 
+    private fun executeAICommand(context: CommandContext<ServerCommandSource>): Int {
+        val source = context.source
+        val settings = LagCutConfig.config.aiThrottling
+
+        if (!settings.enabled) {
+            CommandManager.sendSuccess(source, "[LagCut] AI throttling is disabled.", false)
+            return 1
+        }
+
+        val intensity = AIThrottleController.intensity
+        val message = Text.literal("[LagCut] AI ")
+            .append(
+                CommandManager.formatColoredMessage(
+                    AIThrottleController.getStatusString(),
+                    if (intensity == 0) 0x55FF55 else if (intensity < settings.maxThrottleIntensity) 0xFFFF55 else 0xFF5555
+                )
+            )
+            .append(Text.literal(
+                " | Radius -${AIThrottleController.radiusReduction} | Interval x${AIThrottleController.intervalScale}" +
+                        " | Pathfinding x${AIThrottleController.pathfindingScale}"
+            ))
+
+        source.sendFeedback(Supplier { message }, false)
+
+        if (settings.pathfindingBudget) {
+            PathfindingScheduler.getStatusLines().forEach { line ->
+                source.sendFeedback(Supplier { Text.literal("[LagCut] Pathfinding $line") }, false)
+            }
+        }
+        return 1
+    }
+
+    private fun executeProfileCommand(context: CommandContext<ServerCommandSource>, action: String): Int {
+        val source = context.source
+
+        when (action) {
+            "start" -> {
+                LagCutProfiler.start()
+                CommandManager.sendSuccess(source, "[LagCut] Profiling started. Use '/lc profile report' to see results.", false)
+            }
+            "stop" -> {
+                if (!LagCutProfiler.enabled) {
+                    CommandManager.sendError(source, "[LagCut] The profiler is not running.")
+                    return 0
+                }
+                LagCutProfiler.stop()
+                CommandManager.sendSuccess(source, "[LagCut] Profiling stopped.", false)
+                LagCutProfiler.report().forEach { line -> CommandManager.sendSuccess(source, "[LagCut] $line", false) }
+            }
+            else -> LagCutProfiler.report().forEach { line -> CommandManager.sendSuccess(source, "[LagCut] $line", false) }
+        }
+        return 1
+    }
+
+    private fun executeHeatmapCommand(context: CommandContext<ServerCommandSource>, world: ServerWorld, rows: Int): Int {
+        val source = context.source
+        val chunks = DensityIndex.hottest(world, rows)
+
+        if (chunks.isEmpty()) {
+            CommandManager.sendSuccess(source, "[LagCut] No entities tracked in ${world.registryKey.value}.", false)
+            return 1
+        }
+
+        CommandManager.sendSuccess(source, "[LagCut] Most crowded chunks in ${world.registryKey.value}:", false)
+        val warnAt = LagCutConfig.config.clearLag.maxMobsPerChunk
+        for (chunk in chunks) {
+            val topTypes = chunk.byType.reference2IntEntrySet()
+                .sortedByDescending { it.intValue }
+                .take(3)
+                .joinToString(", ") { "${EntityType.getId(it.key).path} ${it.intValue}" }
+
+            val message = Text.literal("[${ChunkPos.getPackedX(chunk.chunkKey)}, ${ChunkPos.getPackedZ(chunk.chunkKey)}] ")
+                .append(
+                    CommandManager.formatColoredMessage(
+                        chunk.total.toString(),
+                        if (chunk.total > warnAt) 0xFF5555 else if (chunk.total > warnAt / 2) 0xFFFF55 else 0x55FF55
+                    )
+                )
+                .append(Text.literal(
+                    " | Pokemon ${chunk.count(DensityIndex.Category.POKEMON)}, Mobs ${chunk.count(DensityIndex.Category.MOB)}," +
+                            " Items ${chunk.count(DensityIndex.Category.ITEM)} | $topTypes"
+                ))
+            source.sendFeedback(Supplier { message }, false)
+        }
+        return 1
+    }
+
     private fun executePingCommand(context: CommandContext<ServerCommandSource>): Int {
         val source = context.source
         val players = source.server.playerManager.playerList
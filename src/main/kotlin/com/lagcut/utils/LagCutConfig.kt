@@ -13,12 +13,22 @@ data class LagReductionConfig(
     override val version: String = "1.0.1",
     override val configId: String = "lagcut",
     var debugEnabled: Boolean = true,
+    var nametagRaycastBudget: Int = 64,
+    var nametagRaycastCacheTicks: Int = 100,
+    var metrics: MetricsSettings = MetricsSettings(),
     var aiThrottling: AIThrottlingSettings = AIThrottlingSettings(),
     var clearLag: ClearLagSettings = ClearLagSettings(),
     var entityStacking: EntityStackingSettings = EntityStackingSettings(),
     var itemStacking: ItemStackingSettings = ItemStackingSettings()
 ) : ConfigData
 
+data class MetricsSettings(
+    var enabled: Boolean = false,
+    var bindAddress: String = "127.0.0.1",
+    var port: Int = 9225,
+    var refreshTicks: Int = 20
+)
+
 data class EntityStackingSettings(
     var enabled: Boolean = true,
     var enableNameTags: Boolean = true,
@@ -29,6 +39,7 @@ data class EntityStackingSettings(
     var stackBabyWithAdult: Boolean = false,
     var deleteEntireStackOnKill: Boolean = false,
     var preserveOriginalEntityOnDeath: Boolean = false,
+    var stackHealthPool: Boolean = false,
     var clearStacksOnServerStop: Boolean = true,
     var detectionRadius: Double = 20.0,
     var stackingFrequencyTicks: Int = 60,
@@ -42,7 +53,7 @@ data class EntityStackingSettings(
         "entity.minecraft.trader_llama",
         "entity.taterzens.npc"
     ),
-    var nbtExclusionPatterns: List<String> = listOf("Level=100"),
+    var nbtExclusionPatterns: List<String> = listOf("Pokemon.Level>=100"),
     var excludedDimensions: List<String> = listOf(
         "minecraft:the_end",
         "minecraft:the_nether"
@@ -55,6 +66,7 @@ data class ItemStackingSettings(
     var hideNametagsThroughBlocks: Boolean = true,
     var maxStackSize: Int = 99,
     var detectionRadius: Double = 1.5,
+    var mergeTimeBudgetMicros: Int = 2000,
     var stackNameFormat: String = "<itemname>: <itemamount><bold>x</bold>",
     var showNametagsOnExcluded: Boolean = true,
     var excludedItems: List<String> = listOf("minecraft:diamond_sword", "minecraft:apple"),
@@ -80,6 +92,11 @@ data class ClearLagSettings(
     var clearMojangEntities: Boolean = true,
     var clearItemEntities: Boolean = true,
     var preservePersistentEntities: Boolean = true,
+    var densityMode: Boolean = false,
+    var densityCheckIntervalTicks: Int = 200,
+    var maxMobsPerChunk: Int = 50,
+    var maxPokemonPerChunk: Int = 30,
+    var maxItemsPerChunk: Int = 100,
     var excludedEntities: List<String> = listOf(
         "minecraft:armor_stand",
         "minecraft:chest_minecart",
@@ -137,6 +154,24 @@ data class AIThrottlingSettings(
     var renderDebugParticles: Boolean = false,
     var disableWaterPlatforms: Boolean = true,
     var chunkGridSize: Int = 3, // 3 = 3x3, 5 = 5x5, 7 = 7x7, etc.
+    var reducedChunkRadius: Int = 4,
+    var minimalChunkRadius: Int = 8,
+    var reducedTier: AITierSettings = AITierSettings(movementInterval = 2, goalInterval = 4, targetInterval = 8, pathfindingInterval = 10, lookInterval = 2),
+    var minimalTier: AITierSettings = AITierSettings(movementInterval = 4, goalInterval = 10, targetInterval = 20, pathfindingInterval = 40, lookInterval = 5),
+    var frozenTier: AITierSettings = AITierSettings(movementInterval = 0, goalInterval = 0, targetInterval = 0, pathfindingInterval = 0, lookInterval = 0),
+    var throttleStackedMobSelectors: Boolean = true,
+    var stackedMobGoalInterval: Int = 4,
+    var stackedMobTargetInterval: Int = 8,
+    var pathfindingBudget: Boolean = true,
+    var maxPathfindsPerTick: Int = 40,
+    var pathfindBudgetMicros: Int = 5000,
+    var cobblemonAware: Boolean = true,
+    var wildPokemonTierShift: Int = 1,
+    var wildPokemonSyncInterval: Int = 4,
+    var adaptiveThrottling: Boolean = true,
+    var targetMspt: Double = 45.0,
+    var msptHysteresis: Double = 5.0,
+    var maxThrottleIntensity: Int = 3
 ) {
     // Validate that the grid size is odd and within reasonable bounds
     init {
@@ -149,6 +184,15 @@ data class AIThrottlingSettings(
         get() = (chunkGridSize - 1) / 2
 }
 
+// How often (in ticks) each part of a mob's AI runs in one LOD tier; 0 means never
+data class AITierSettings(
+    var movementInterval: Int = 1,
+    var goalInterval: Int = 1,
+    var targetInterval: Int = 1,
+    var pathfindingInterval: Int = 1,
+    var lookInterval: Int = 1
+)
+
 object LagCutConfig {
     private val logger = LoggerFactory.getLogger("LagCut")
     private const val MOD_ID = "lagcut"  // Add this constant
@@ -156,6 +200,10 @@ object LagCutConfig {
     private lateinit var configManager: ConfigManager<LagReductionConfig>
     private var isInitialized = false
 
+    // Incremented on every reload so caches derived from the config know when to rebuild
+    var epoch = 0
+        private set
+
     private val configMetadata = ConfigMetadata(
         headerComments = listOf(
             "LagCut Configuration File",
@@ -166,14 +214,45 @@ object LagCutConfig {
             "Debug Settings:",
             "- debugEnabled: Turn this on if you want to see detailed information about what the mod is doing",
             "",
+            "Nametag Settings:",
+            "- nametagRaycastBudget: How many line-of-sight checks each world may run per tick for",
+            "  hideNametagsThroughBlocks. Checks that don't fit are done on the next tick, nearest first.",
+            "  Finding due checks is bounded as well: at most 16 entity/player pairs per check are looked at each tick",
+            "- nametagRaycastCacheTicks: How long a line-of-sight result is reused while the player and the",
+            "  entity stay on the same blocks and nothing is built or broken in between (0 disables the cache)",
+            "",
+            "Metrics Settings:",
+            "- enabled: Serve Prometheus metrics (TPS, MSPT, memory, chunks, entities and LagCut counters)",
+            "- bindAddress / port: Where the endpoint listens; it is served at http://<bindAddress>:<port>/metrics.",
+            "  Keep 127.0.0.1 unless your scraper runs on another machine",
+            "- refreshTicks: How often (in ticks) the server values are copied for the endpoint",
+            "",
             "AI Throttling Settings:",
             "These settings control how mobs behave when they're far from players to save server resources",
+            "Mobs get an AI tier from their distance (in chunks) to the nearest player:",
+            "full inside chunkGridSize, reduced up to reducedChunkRadius, minimal up to minimalChunkRadius, frozen beyond",
             "- enabled: Turn AI throttling on/off",
-            "- throttleMovementTicks: If true, mobs move less often when far from players",
-            "- throttleGeneralAI: If true, mobs think less often when far from players",
-            "- throttleMojangEntities: Apply throttling to vanilla Minecraft mobs",
-            "- throttleCobblemonEntities: Apply throttling to Pokémon",
-            "- maxRadius: How far away (in blocks) before mobs start being throttled",
+            "- chunkGridSize: Size of the full AI area around each player (3 = 3x3 chunks)",
+            "- reducedChunkRadius: Chunks from the nearest player where the reduced tier ends",
+            "- minimalChunkRadius: Chunks from the nearest player where the minimal tier ends",
+            "- reducedTier / minimalTier / frozenTier: How often each part of the AI runs in that tier",
+            "  movementInterval, goalInterval, targetInterval, pathfindingInterval, lookInterval (in ticks, 1 = every tick, 0 = never)",
+            "  goalInterval and targetInterval control how often mobs look for a new goal or target; goals that",
+            "  are already running keep going in between",
+            "- throttleStackedMobSelectors: Also slow down goal and target selection for stacked mobs near players",
+            "- stackedMobGoalInterval / stackedMobTargetInterval: How often stacked mobs look for a new goal or target",
+            "- pathfindingBudget: Limit how many path searches each world runs per tick; the rest wait their turn",
+            "  (mobs in combat and mobs near players go first, and waiting mobs move up the longer they wait)",
+            "- maxPathfindsPerTick: Path searches each world may start per tick",
+            "- pathfindBudgetMicros: Time each world may spend on path searches per tick (1000 = 1 millisecond)",
+            "- cobblemonAware: Treat Pokémon by their state: battling, owned and sent-out Pokémon always get full AI",
+            "- wildPokemonTierShift: How many tiers further out idle wild Pokémon are treated (1 = reduced near players)",
+            "- wildPokemonSyncInterval: How often (in ticks) idle wild Pokémon outside the full tier send their data to players",
+            "- adaptiveThrottling: Throttle harder while the server is above targetMspt and relax again when it recovers",
+            "- targetMspt: Milliseconds per tick the server should stay under (50 = 20 TPS limit)",
+            "- msptHysteresis: How far below targetMspt the server must be before throttling is relaxed",
+            "- maxThrottleIntensity: Highest extra throttling level; each level shrinks the tier radii by one chunk",
+            "  and makes reduced and minimal tier AI run less often. Use '/lc ai' to see the current level",
             "",
             "Entity Stacking Settings:",
             "These settings control how nearby similar mobs combine into stacks",
@@ -183,10 +262,11 @@ object LagCutConfig {
             "- stackPlayerNamedEntity: Allow stacking of mobs that players have named",
             "- canStackedEntityPickUpItems: Let stacked mobs pick up items",
             "- stackBabyWithAdult: Allow baby mobs to stack with adult mobs",
-            "- deleteEntireStackOnKill: When you kill a stack, kill all mobs in it",
+            "- deleteEntireStackOnKill: When you kill a stack, kill all mobs in it (their loot and XP drop merged, all at once)",
             "- preserveOriginalEntityOnDeath: Keep special properties when mobs die",
+            "- stackHealthPool: A killed stack loses one mob and heals instead of dying and respawning (ignored with deleteEntireStackOnKill)",
             "- clearStacksOnServerStop: Remove stacks when server stops",
-            "- detectionRadius: How close mobs need to be to stack (in blocks)",
+            "- detectionRadius: How close mobs need to be to stack (in blocks). Each merge pass consolidates whole groups at once, but a stack only absorbs mobs within this distance of itself, so chains of mobs across a pasture are never pulled into one spot. Values below 0.25 are treated as 0.25",
             "- stackingFrequencyTicks: How often the mod checks for stackable mobs (20 ticks = 1 second)",
             "- maxStackSize: Maximum number of mobs in one stack",
             "- stackNameFormat: How to show the stack size above mobs (<entityname> and <stacksize> will be replaced)",
@@ -207,11 +287,16 @@ object LagCutConfig {
             "    - entity.cobblemon.pokemon",
             "",
             "- nbtExclusionPatterns: Special properties in mob data that prevent stacking",
+            "  Patterns can be structured predicates: <path> <op> <value>, <path> exists or <path> !exists",
+            "  Operators: = != > >= < <= ~ (contains). Path segments are separated by dots, quote ids with colons",
+            "  Structured predicates only read the data they need. Anything else is treated as plain text",
+            "  searched in the full NBT (slower, kept for older configs)",
             "  Example format:",
             "  nbtExclusionPatterns:",
-            "    - Level=100",
+            "    - Pokemon.Level>=100",
+            "    - CustomName exists",
+            "    - Item.components.\"minecraft:custom_name\" ~ \"Plush\"",
             "    - Health:20",
-            "    - CustomName",
             "",
             "- excludedDimensions: Which Minecraft worlds where stacking won't happen",
             "  Example format:",
@@ -226,6 +311,7 @@ object LagCutConfig {
             "- hideNametagsThroughBlocks: Hide stack names when blocks are in the way",
             "- maxStackSize: Maximum items in one stack (limited to 99 for compatibility)",
             "- detectionRadius: How close items need to be to stack (in blocks)",
+            "- mergeTimeBudgetMicros: Time each world may spend per tick merging queued items (1000 = 1 millisecond)",
             "- stackNameFormat: How to show the stack size above items (<itemname> and <itemamount> will be replaced)",
             "- showNametagsOnExcluded: Show names for items that can't stack",
             "",
@@ -266,6 +352,11 @@ object LagCutConfig {
             "- clearMojangEntities: Clean up vanilla Minecraft mobs",
             "- clearItemEntities: Clean up dropped items",
             "- preservePersistentEntities: Don't clean up special mobs (like named ones)",
+            "- densityMode: Instead of clearing everything on a timer, only thin out chunks with too many entities",
+            "  (oldest and least valuable first, until the chunk is back at its limit). Countdown messages are not sent",
+            "- densityCheckIntervalTicks: How often overloaded chunks are looked for (20 ticks = 1 second)",
+            "- maxMobsPerChunk / maxPokemonPerChunk / maxItemsPerChunk: Entities of each kind a chunk may hold.",
+            "  Use '/lc heatmap [world] [top]' to see the most crowded chunks",
             "",
             "Clear Lag List Settings:",
             "- excludedEntities: List of exact entity IDs that won't be cleaned up",
@@ -285,7 +376,7 @@ object LagCutConfig {
             "- nbtExclusionPatterns: Special properties that prevent cleanup",
             "  Example format:",
             "  nbtExclusionPatterns:",
-            "    - Level=100",
+            "    - Pokemon.Level>=100",
             "    - CustomName",
             "    - Shiny",
             "",
@@ -370,6 +461,7 @@ object LagCutConfig {
         println("[DEBUG-$MOD_ID] Starting config reload...")
         runBlocking {
             configManager.reloadConfig()
+            epoch++
             println("[DEBUG-$MOD_ID] Config reloaded, updating debug state...")
             updateDebugState()
             println("[DEBUG-$MOD_ID] Reload complete")